@@ -0,0 +1,97 @@
+package simpledb.bench;
+
+import simpledb.file.Page;
+import simpledb.server.SimpleDB;
+
+/**
+ * Methods shared by the benchmarks of this package:
+ * parsing their arguments, creating their scratch files,
+ * and timing their loops.
+ */
+class Bench {
+   private static final long NANOS_PER_SECOND = 1000000000L;
+
+   /**
+    * Prints the usage message of a benchmark and exits
+    * if it was given fewer than the required arguments.
+    * @param args the arguments of the benchmark
+    * @param required the number of required arguments
+    * @param usage the command line of the benchmark
+    */
+   static void checkArgs(String args[], int required, String usage) {
+      if (args.length < required) {
+         System.out.println("usage: " + usage);
+         System.exit(2);
+      }
+   }
+
+   /**
+    * Returns the specified optional argument as an integer,
+    * or the default value if the argument was not given.
+    * @param args the arguments of the benchmark
+    * @param i the position of the argument
+    * @param defaultval the value of a missing argument
+    * @return the value of the argument
+    */
+   static int intArg(String args[], int i, int defaultval) {
+      return (args.length > i) ? Integer.parseInt(args[i]) : defaultval;
+   }
+
+   /**
+    * Appends empty blocks to the specified file of the
+    * current database until it has at least the specified size.
+    * A file left by an earlier run is reused.
+    * @param filename the name of the file
+    * @param numblocks the number of blocks it must have
+    */
+   static void createFile(String filename, int numblocks) {
+      Page p = new Page();
+      for (int blknum=SimpleDB.fileMgr().size(filename); blknum<numblocks; blknum++)
+         p.append(filename);
+   }
+
+   /**
+    * Returns the time, in the units of {@link System#nanoTime},
+    * at which a loop that starts now and runs for the
+    * specified number of seconds should end.
+    * @param seconds the duration of the loop
+    * @return the end time of the loop
+    */
+   static long deadline(int seconds) {
+      return System.nanoTime() + seconds * NANOS_PER_SECOND;
+   }
+
+   /**
+    * Returns true if a timed loop should go on.
+    * So that reading the clock does not weigh on
+    * what the loop measures, the clock is only read
+    * every 1024 iterations.
+    * @param deadline the end time of the loop
+    * @param count the number of iterations done so far
+    * @return false if the loop should stop
+    */
+   static boolean running(long deadline, long count) {
+      return (count & 1023) != 0 || System.nanoTime() < deadline;
+   }
+
+   /**
+    * Returns the rate of operations that took
+    * the specified time.
+    * @param count the number of operations
+    * @param nanos their duration in nanoseconds
+    * @return the number of operations per second
+    */
+   static double perSecond(long count, long nanos) {
+      return count * (double) NANOS_PER_SECOND / nanos;
+   }
+
+   /**
+    * Returns the number of whole milliseconds since the
+    * specified time.
+    * @param start a time returned by {@link System#nanoTime}
+    * @return the milliseconds elapsed since then
+    */
+   static long millisSince(long start) {
+      return (System.nanoTime() - start) / 1000000;
+   }
+}
@@ -0,0 +1,122 @@
+package simpledb.bench;
+
+import simpledb.buffer.*;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.recovery.RecoveryMgr;
+import java.util.Random;
+
+/**
+ * A benchmark that measures how the throughput of the
+ * buffer manager scales with the number of stripes
+ * that its pool is divided into.
+ * For each number of stripes, a pool is created and the
+ * specified number of threads
+ * first pin and unpin randomly chosen blocks of a table
+ * for the specified time, most of them from a hot set
+ * that fits in the pool; and then each append blocks
+ * to a shared file, logging a modification of each new block,
+ * so that a buffer that is replaced has to be written,
+ * after forcing the log.
+ * <p>
+ * Usage: <code>java simpledb.bench.BufferBench dbname [threads] [buffers] [seconds]</code>
+ * <p>
+ * The database should be a scratch database;
+ * the benchmark adds the files "bufbench.tbl" and "bufbench.app"
+ * to it; the second grows by the blocks that each run appends.
+ */
+public class BufferBench {
+   private static final String FILENAME = "bufbench.tbl";
+   private static final String APPENDFILE = "bufbench.app";
+   private static final int APPENDS = 1000;
+
+   public static void main(String args[]) throws InterruptedException {
+      Bench.checkArgs(args, 1, "java simpledb.bench.BufferBench dbname [threads] [buffers] [seconds]");
+      String dbname = args[0];
+      int numthreads = Bench.intArg(args, 1, 8);
+      int numbuffs = Bench.intArg(args, 2, 1024);
+      int seconds = Bench.intArg(args, 3, 5);
+
+      SimpleDB.initFileAndLogMgr(dbname);
+      int numblocks = 4 * numbuffs;
+      Bench.createFile(FILENAME, numblocks);
+      System.out.println(numthreads + " threads, " + numbuffs + " buffers, "
+                            + Runtime.getRuntime().availableProcessors() + " processors");
+
+      for (int stripes=1; stripes<=16; stripes*=2) {
+         BufferMgr bm = new BufferMgr(numbuffs, "clock", stripes);
+         long pins = runThreads(bm, numthreads, numblocks, seconds, false);
+         long start = System.nanoTime();
+         runThreads(bm, numthreads, numblocks, seconds, true);
+         long appends = (long) Bench.perSecond((long) numthreads * APPENDS, System.nanoTime() - start);
+         System.out.println(stripes + " stripes: " + pins / seconds + " pins/s, "
+                               + appends + " appends/s, hit ratio " + bm.hitRatio());
+      }
+   }
+
+   /**
+    * Runs the pin or append workload in the specified number of
+    * threads, and returns the total number of pins.
+    */
+   private static long runThreads(final BufferMgr bm, int numthreads, final int numblocks,
+                                  final int seconds, final boolean append)
+         throws InterruptedException {
+      final long[] counts = new long[numthreads];
+      Thread[] threads = new Thread[numthreads];
+      for (int i=0; i<numthreads; i++) {
+         final int id = i;
+         threads[i] = new Thread() {
+            public void run() {
+               counts[id] = append ? appendBlocks(bm, id) : pinBlocks(bm, id, numblocks, seconds);
+            }
+         };
+         threads[i].start();
+      }
+      long total = 0;
+      for (int i=0; i<numthreads; i++) {
+         threads[i].join();
+         total += counts[i];
+      }
+      return total;
+   }
+
+   /**
+    * Pins and unpins random blocks for the specified time;
+    * four pins out of five are to the hot tenth of the table.
+    */
+   private static long pinBlocks(BufferMgr bm, int id, int numblocks, int seconds) {
+      Random rand = new Random(id);
+      int hot = numblocks / 10;
+      long end = Bench.deadline(seconds);
+      long count = 0;
+      while (Bench.running(end, count)) {
+         int blknum = (rand.nextInt(5) < 4) ? rand.nextInt(hot) : rand.nextInt(numblocks);
+         Buffer buff = bm.pin(new Block(FILENAME, blknum));
+         bm.unpin(buff);
+         count++;
+      }
+      return count;
+   }
+
+   /**
+    * Appends blocks to the shared file, and modifies each of them
+    * on behalf of a transaction whose pages are written at the end.
+    */
+   private static long appendBlocks(BufferMgr bm, int id) {
+      int txnum = Integer.MAX_VALUE - id;  // not the number of a real transaction
+      RecoveryMgr rm = new RecoveryMgr(txnum);
+      PageFormatter fmtr = new PageFormatter() {
+         public void format(Page p) {
+            p.setInt(0, 0);
+         }
+      };
+      for (int i=0; i<APPENDS; i++) {
+         Buffer buff = bm.pinNew(APPENDFILE, fmtr);
+         long lsn = rm.setInt(buff, 0, i);
+         buff.setInt(0, i, txnum, lsn);
+         bm.unpin(buff);
+      }
+      bm.flushAll(txnum);
+      return APPENDS;
+   }
+}
@@ -0,0 +1,78 @@
+package simpledb.bench;
+
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+import java.util.Random;
+
+/**
+ * A benchmark that compares the file manager's two ways of
+ * accessing files: through file channels, and through
+ * memory mappings (see {@link SimpleDB#MAPPED_FILES}).
+ * The benchmark creates a table file of the specified size,
+ * and then measures the rate of random reads and random writes
+ * of its blocks in each mode, from a single thread.
+ * Since the file fits in the operating system's cache,
+ * the benchmark measures the cost of the accesses themselves,
+ * not that of the disk.
+ * <p>
+ * Usage: <code>java simpledb.bench.FileBench dbname [blocks] [seconds]</code>
+ * <p>
+ * The database should be a scratch database;
+ * the benchmark adds the file "filebench.tbl" to it.
+ */
+public class FileBench {
+   private static final String FILENAME = "filebench.tbl";
+
+   public static void main(String args[]) {
+      Bench.checkArgs(args, 1, "java simpledb.bench.FileBench dbname [blocks] [seconds]");
+      String dbname = args[0];
+      int numblocks = Bench.intArg(args, 1, 4096);
+      int seconds = Bench.intArg(args, 2, 5);
+
+      SimpleDB.initFileMgr(dbname);
+      Page p = new Page();
+      for (int blknum=SimpleDB.fileMgr().size(FILENAME); blknum<numblocks; blknum++) {
+         p.setInt(0, blknum);
+         p.append(FILENAME);
+      }
+      System.out.println(numblocks + " blocks of " + Page.BLOCK_SIZE + " bytes");
+
+      for (int round=0; round<2; round++) {
+         for (boolean mapped : new boolean[] {false, true}) {
+            SimpleDB.MAPPED_FILES = mapped;
+            SimpleDB.initFileMgr(dbname);
+            String mode = mapped ? "mapped " : "channel";
+            long reads = run(new Page(), numblocks, seconds, false);
+            long writes = run(new Page(), numblocks, seconds, true);
+            if (round > 0)   // the first round warms up the JIT and the OS cache
+               System.out.println(mode + ": " + reads / seconds + " reads/s, "
+                                     + writes / seconds + " writes/s");
+         }
+      }
+   }
+
+   /**
+    * Reads or writes randomly chosen blocks of the file
+    * for the specified time.
+    * @return the number of blocks accessed
+    */
+   private static long run(Page p, int numblocks, int seconds, boolean write) {
+      Random rand = new Random(42);
+      long end = Bench.deadline(seconds);
+      long count = 0;
+      while (Bench.running(end, count)) {
+         Block blk = new Block(FILENAME, rand.nextInt(numblocks));
+         if (write) {
+            p.setInt(0, blk.number());
+            p.write(blk);
+         }
+         else {
+            p.read(blk);
+            if (p.getInt(0) != blk.number())
+               throw new RuntimeException("wrong contents in " + blk);
+         }
+         count++;
+      }
+      return count;
+   }
+}
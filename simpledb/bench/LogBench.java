@@ -0,0 +1,71 @@
+package simpledb.bench;
+
+import simpledb.buffer.*;
+import simpledb.file.Page;
+import simpledb.log.LogMgr;
+import simpledb.server.SimpleDB;
+import simpledb.tx.recovery.RecoveryMgr;
+
+/**
+ * A benchmark of the log records of updates.
+ * A single transaction logs the specified number of setint
+ * updates, and then as many setstring updates, to one block.
+ * The benchmark reports the rate at which the records
+ * are appended, and the number of log bytes per record,
+ * including the space left at the ends of the log blocks.
+ * The log is not forced until the transaction commits,
+ * except when its ring of pages is full.
+ * <p>
+ * Usage: <code>java simpledb.bench.LogBench dbname [updates]</code>
+ * <p>
+ * The database should be a scratch database;
+ * the benchmark adds the file "logbench.tbl" to it.
+ */
+public class LogBench {
+   private static final String FILENAME = "logbench.tbl";
+
+   public static void main(String args[]) {
+      Bench.checkArgs(args, 1, "java simpledb.bench.LogBench dbname [updates]");
+      String dbname = args[0];
+      int numupdates = Bench.intArg(args, 1, 100000);
+      SimpleDB.BUFFER_WRITER_DELAY = 0;
+      SimpleDB.READ_AHEAD_BLOCKS = 0;
+      SimpleDB.initFileLogAndBufferMgr(dbname);
+      BufferMgr bm = SimpleDB.bufferMgr();
+      LogMgr logMgr = SimpleDB.logMgr();
+      Buffer buff = bm.pinNew(FILENAME, new PageFormatter() {
+         public void format(Page p) {}
+      });
+      int txnum = Integer.MAX_VALUE;  // not the number of a real transaction
+      RecoveryMgr rm = new RecoveryMgr(txnum);
+
+      for (int round=0; round<2; round++) {
+         long startlsn = logMgr.currentLSN();
+         long start = System.nanoTime();
+         for (int i=0; i<numupdates; i++) {
+            int offset = (i % 100) * Page.INT_SIZE;
+            buff.setInt(offset, i, txnum, rm.setInt(buff, offset, i));
+         }
+         long intnanos = System.nanoTime() - start;
+         long intbytes = logMgr.currentLSN() - startlsn;
+
+         startlsn = logMgr.currentLSN();
+         start = System.nanoTime();
+         for (int i=0; i<numupdates; i++) {
+            int offset = 400 + (i % 50) * Page.STR_SIZE(20);
+            String val = "value" + i;
+            buff.setString(offset, val, txnum, rm.setString(buff, offset, val));
+         }
+         long strnanos = System.nanoTime() - start;
+         long strbytes = logMgr.currentLSN() - startlsn;
+
+         if (round > 0)   // the first round warms up the JIT
+            System.out.printf("setint: %.0f records/s, %.1f bytes each; "
+                                 + "setstring: %.0f records/s, %.1f bytes each%n",
+                              Bench.perSecond(numupdates, intnanos), (double) intbytes / numupdates,
+                              Bench.perSecond(numupdates, strnanos), (double) strbytes / numupdates);
+      }
+      rm.commit();
+      bm.unpin(buff);
+   }
+}
@@ -0,0 +1,59 @@
+package simpledb.bench;
+
+import simpledb.file.Page;
+
+/**
+ * A benchmark of the accessors of a page.
+ * It measures reading the integers of a page, and finding a
+ * string among the strings of a page, both by reading each
+ * string and comparing it, and by comparing the encoded search
+ * string with the bytes of the page in place.
+ * The page is not read from or written to disk.
+ * <p>
+ * Usage: <code>java simpledb.bench.PageBench [rounds]</code>
+ */
+public class PageBench {
+   private static final int SLOT_SIZE = 40;
+   private static final int ITERATIONS = 20000;
+   private static volatile long sink;
+
+   public static void main(String args[]) {
+      int rounds = Bench.intArg(args, 0, 5);
+      Page p = new Page();
+      int numslots = (Page.BLOCK_SIZE - 256) / SLOT_SIZE;
+      for (int i=0; i<numslots; i++) {
+         p.setInt(i * SLOT_SIZE, i);
+         p.setString(i * SLOT_SIZE + Page.INT_SIZE, "tablename" + i);
+      }
+      String key = "tablename" + (numslots / 2);
+      byte[] encoded = Page.encode(key);
+
+      for (int round=0; round<rounds; round++) {
+         long start = System.nanoTime();
+         long sum = 0;
+         for (int r=0; r<ITERATIONS; r++)
+            for (int i=0; i<numslots; i++)
+               sum += p.getInt(i * SLOT_SIZE);
+         long intnanos = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for (int r=0; r<ITERATIONS; r++)
+            for (int i=0; i<numslots; i++)
+               if (p.getString(i * SLOT_SIZE + Page.INT_SIZE).equals(key))
+                  sum++;
+         long getnanos = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for (int r=0; r<ITERATIONS; r++)
+            for (int i=0; i<numslots; i++)
+               if (p.compareString(i * SLOT_SIZE + Page.INT_SIZE, encoded) == 0)
+                  sum++;
+         long cmpnanos = System.nanoTime() - start;
+         sink = sum;
+
+         double ops = (double) ITERATIONS * numslots;
+         System.out.printf("getInt %.2f ns, getString+equals %.2f ns, compareString %.2f ns%n",
+                           intnanos / ops, getnanos / ops, cmpnanos / ops);
+      }
+   }
+}
@@ -0,0 +1,64 @@
+package simpledb.bench;
+
+import simpledb.buffer.*;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+import java.util.Random;
+
+/**
+ * A benchmark that measures the cost of pinning and unpinning
+ * a buffer as the buffer pool grows.
+ * For each pool size, a single thread pins and unpins randomly
+ * chosen blocks that are in the pool (hits), and then
+ * scans twice as many blocks as the pool holds,
+ * so that every pin has to replace a buffer (misses).
+ * The table fits in the operating system's cache, so the
+ * misses measure the cost of replacement, not that of the disk.
+ * <p>
+ * Usage: <code>java simpledb.bench.PinBench dbname [maxbuffers] [seconds]</code>
+ * <p>
+ * The database should be a scratch database;
+ * the benchmark adds the file "pinbench.tbl" to it.
+ */
+public class PinBench {
+   private static final String FILENAME = "pinbench.tbl";
+
+   public static void main(String args[]) {
+      Bench.checkArgs(args, 1, "java simpledb.bench.PinBench dbname [maxbuffers] [seconds]");
+      String dbname = args[0];
+      int maxbuffs = Bench.intArg(args, 1, 16384);
+      int seconds = Bench.intArg(args, 2, 3);
+
+      SimpleDB.initFileAndLogMgr(dbname);
+      Bench.createFile(FILENAME, 2 * maxbuffs);
+
+      for (int numbuffs=8; numbuffs<=maxbuffs; numbuffs*=8) {
+         BufferMgr bm = new BufferMgr(numbuffs);
+         long hits = pinBlocks(bm, numbuffs, seconds, false);
+         long misses = pinBlocks(bm, numbuffs, seconds, true);
+         System.out.println(numbuffs + " buffers: " + hits / seconds + " hits/s, "
+                               + misses / seconds + " misses/s");
+      }
+   }
+
+   /**
+    * Pins and unpins blocks for the specified time,
+    * either random blocks that fit in the pool,
+    * or the blocks of a scan that is larger than the pool.
+    */
+   private static long pinBlocks(BufferMgr bm, int numbuffs, int seconds, boolean scan) {
+      Random rand = new Random(0);
+      int span = scan ? 2 * numbuffs : numbuffs / 2;
+      for (int blknum=0; blknum<span && !scan; blknum++)
+         bm.unpin(bm.pin(new Block(FILENAME, blknum)));
+      long end = Bench.deadline(seconds);
+      long count = 0;
+      while (Bench.running(end, count)) {
+         int blknum = scan ? (int) (count % span) : rand.nextInt(span);
+         Buffer buff = bm.pin(new Block(FILENAME, blknum));
+         bm.unpin(buff);
+         count++;
+      }
+      return count;
+   }
+}
@@ -0,0 +1,83 @@
+package simpledb.bench;
+
+import simpledb.buffer.*;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+import java.util.Random;
+
+/**
+ * A benchmark that compares the hit ratios of the
+ * buffer replacement policies.
+ * The workload mixes random pins of a hot set of blocks,
+ * which is smaller than the pool, with occasional sequential
+ * scans of a large table, which a scan-resistant policy
+ * keeps from flushing the hot set out of the pool.
+ * A second workload pins blocks of the whole table
+ * with an 80-20 skew, without scans.
+ * <p>
+ * Usage: <code>java simpledb.bench.PolicyBench dbname [buffers] [pins]</code>
+ * <p>
+ * The database should be a scratch database;
+ * the benchmark adds the file "policybench.tbl" to it.
+ */
+public class PolicyBench {
+   private static final String FILENAME = "policybench.tbl";
+   private static final String[] POLICIES = {"clock", "lru2", "2q", "arc"};
+
+   public static void main(String args[]) {
+      Bench.checkArgs(args, 1, "java simpledb.bench.PolicyBench dbname [buffers] [pins]");
+      String dbname = args[0];
+      int numbuffs = Bench.intArg(args, 1, 256);
+      int numpins = Bench.intArg(args, 2, 1000000);
+
+      SimpleDB.initFileAndLogMgr(dbname);
+      int numblocks = 16 * numbuffs;
+      Bench.createFile(FILENAME, numblocks);
+
+      for (String policy : POLICIES) {
+         BufferMgr bm = new BufferMgr(numbuffs, policy, 1);
+         hotAndScans(bm, numbuffs, numblocks, numpins);
+         double scanmix = bm.hitRatio();
+         bm = new BufferMgr(numbuffs, policy, 1);
+         skewed(bm, numblocks, numpins);
+         System.out.printf("%-6s hot set + scans: %.3f, skewed: %.3f%n",
+                           policy, scanmix, bm.hitRatio());
+      }
+   }
+
+   /**
+    * Pins blocks of a hot set that is three quarters of the pool,
+    * and, after every pool-sized run of such pins,
+    * scans as many blocks of the rest of the table as the pool holds.
+    */
+   private static void hotAndScans(BufferMgr bm, int numbuffs, int numblocks, int numpins) {
+      Random rand = new Random(0);
+      int hot = numbuffs * 3 / 4;
+      int scanpos = hot;
+      for (int i=0; i<numpins; i++) {
+         int blknum;
+         if ((i / numbuffs) % 2 == 0)
+            blknum = rand.nextInt(hot);
+         else {
+            blknum = scanpos;
+            scanpos = (scanpos + 1 < numblocks) ? scanpos + 1 : hot;
+         }
+         bm.unpin(bm.pin(new Block(FILENAME, blknum)));
+      }
+   }
+
+   /**
+    * Pins blocks of the whole table with an 80-20 skew:
+    * 80% of the pins go to the first 20% of the blocks,
+    * and so on recursively within each part.
+    */
+   private static void skewed(BufferMgr bm, int numblocks, int numpins) {
+      Random rand = new Random(1);
+      double exponent = Math.log(0.2) / Math.log(0.8);
+      for (int i=0; i<numpins; i++) {
+         double x = Math.pow(rand.nextDouble(), exponent);
+         int blknum = (int) (x * numblocks);
+         bm.unpin(bm.pin(new Block(FILENAME, blknum)));
+      }
+   }
+}
@@ -0,0 +1,117 @@
+package simpledb.bench;
+
+import simpledb.file.Page;
+import simpledb.index.Index;
+import simpledb.index.btree.BTreeIndex;
+import simpledb.query.*;
+import simpledb.record.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import java.io.File;
+import java.util.*;
+
+/**
+ * A benchmark of table scans and B-tree index lookups
+ * at a given block size.
+ * The benchmark creates a new database with the specified
+ * block size, fills a table with the specified number of rows
+ * while building a B-tree index on its key, and then times
+ * full scans of the table and random lookups through the index.
+ * The buffer pool is given a fixed number of bytes, so that
+ * databases of different block sizes get the same memory.
+ * Each block size should be run in its own database, for example:
+ * <pre>
+ * java simpledb.bench.ScanBench bench4k 4096
+ * java simpledb.bench.ScanBench bench16k 16384
+ * </pre>
+ * <p>
+ * Usage: <code>java simpledb.bench.ScanBench dbname blocksize [rows] [poolsize]</code>
+ */
+public class ScanBench {
+   private static final int LOOKUPS = 20000;
+   private static final int ROWS_PER_TX = 1000;
+
+   public static void main(String args[]) {
+      Bench.checkArgs(args, 2, "java simpledb.bench.ScanBench dbname blocksize [rows] [poolsize]");
+      String dbname = args[0];
+      int numrows = Bench.intArg(args, 2, 50000);
+      if (new File(System.getProperty("user.home"), dbname).exists()) {
+         System.out.println("database " + dbname + " already exists");
+         System.exit(2);
+      }
+      SimpleDB.BLOCK_SIZE = Integer.parseInt(args[1]);
+      SimpleDB.BUFFER_POOL_SIZE = (args.length > 3) ? args[3] : "4M";
+      SimpleDB.CHECKPOINT_INTERVAL = 0;
+      SimpleDB.init(dbname);
+
+      Schema sch = new Schema();
+      sch.addIntField("id");
+      sch.addStringField("name", 20);
+      Schema idxsch = new Schema();
+      idxsch.addIntField("block");
+      idxsch.addIntField("id");
+      idxsch.addIntField("dataval");
+      TableInfo ti = new TableInfo("bench", sch);
+
+      List<Integer> ids = new ArrayList<Integer>();
+      for (int i=0; i<numrows; i++)
+         ids.add(i);
+      Collections.shuffle(ids, new Random(0));
+      long start = System.nanoTime();
+      for (int first=0; first<numrows; first+=ROWS_PER_TX) {
+         Transaction tx = new Transaction();
+         UpdateScan ts = new TableScan(ti, tx);
+         Index idx = new BTreeIndex("benchidx", idxsch, tx);
+         for (int i=first; i<Math.min(numrows, first+ROWS_PER_TX); i++) {
+            int id = ids.get(i);
+            ts.insert();
+            ts.setInt("id", id);
+            ts.setString("name", "row" + id);
+            idx.insert(new IntConstant(id), ts.getRid());
+         }
+         idx.close();
+         ts.close();
+         tx.commit();
+      }
+      long loadms = Bench.millisSince(start);
+
+      Transaction tx = new Transaction();
+      long scanms = Long.MAX_VALUE;
+      for (int round=0; round<3; round++) {
+         start = System.nanoTime();
+         Scan ts = new TableScan(ti, tx);
+         long sum = 0;
+         while (ts.next())
+            sum += ts.getInt("id");
+         ts.close();
+         if (sum != (long) numrows * (numrows - 1) / 2)
+            throw new RuntimeException("wrong scan result " + sum);
+         scanms = Math.min(scanms, Bench.millisSince(start));
+      }
+
+      Random rand = new Random(1);
+      TableScan ts = new TableScan(ti, tx);
+      Index idx = new BTreeIndex("benchidx", idxsch, tx);
+      start = System.nanoTime();
+      for (int i=0; i<LOOKUPS; i++) {
+         int id = rand.nextInt(numrows);
+         idx.beforeFirst(new IntConstant(id));
+         if (!idx.next())
+            throw new RuntimeException("key " + id + " not found");
+         ts.moveToRid(idx.getDataRid());
+         if (ts.getInt("id") != id)
+            throw new RuntimeException("wrong row for key " + id);
+      }
+      long lookupus = (System.nanoTime() - start) / 1000 / LOOKUPS;
+      idx.close();
+      ts.close();
+      tx.commit();
+
+      System.out.println("block size " + Page.BLOCK_SIZE
+                            + ", " + SimpleDB.bufferMgr().size() + " buffers: "
+                            + "table " + SimpleDB.fileMgr().size(ti.fileName()) + " blocks, "
+                            + "index " + SimpleDB.fileMgr().size("benchidxleaf.tbl") + " leaves; "
+                            + "load " + loadms + " ms, scan " + scanms + " ms, "
+                            + "lookup " + lookupus + " us");
+   }
+}
@@ -0,0 +1,102 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The ARC (adaptive replacement cache) policy of Megiddo and Modha.
+ * Resident blocks are kept on two LRU lists:
+ * T1 holds blocks pinned once since they were read,
+ * and T2 holds blocks pinned more than once.
+ * The ghost lists B1 and B2 remember blocks recently
+ * replaced from T1 and T2.
+ * A miss on a ghost list adapts the target size p of T1,
+ * so the policy balances recency against frequency
+ * according to the workload.
+ */
+class ARCPolicy implements ReplacementPolicy {
+   private int c, p = 0;
+   private LinkedHashSet<Buffer> t1 = new LinkedHashSet<Buffer>();
+   private LinkedHashSet<Buffer> t2 = new LinkedHashSet<Buffer>();
+   private LinkedHashSet<Block>  b1 = new LinkedHashSet<Block>();
+   private LinkedHashSet<Block>  b2 = new LinkedHashSet<Block>();
+   
+   /**
+    * Creates an ARC policy for a pool of the specified size.
+    * @param numbuffs the number of buffers in the pool
+    */
+   ARCPolicy(int numbuffs) {
+      c = numbuffs;
+   }
+   
+   public void pinned(Buffer buff) {
+      if (t1.remove(buff) || t2.remove(buff)) {
+         t2.add(buff);
+         return;
+      }
+      Block blk = buff.block();
+      if (b1.remove(blk) || b2.remove(blk))
+         t2.add(buff);
+      else
+         t1.add(buff);
+      while (t1.size() + b1.size() > c && !b1.isEmpty())
+         removeFirst(b1);
+      while (t1.size() + t2.size() + b1.size() + b2.size() > 2*c && !b2.isEmpty())
+         removeFirst(b2);
+   }
+   
+   public void unpinned(Buffer buff) {}
+   
+   /**
+    * The buffer goes on T1, without consulting the ghost lists,
+    * which are left for the block's first real pin.
+    */
+   public void loaded(Buffer buff) {
+      t1.add(buff);
+   }
+   
+   public Buffer chooseUnpinnedBuffer(Block blk) {
+      boolean inB2 = blk != null && b2.contains(blk);
+      if (blk != null && b1.contains(blk))
+         p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+      else if (inB2)
+         p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+      
+      boolean fromT1 = !t1.isEmpty() && (t1.size() > p || (inB2 && t1.size() == p));
+      Buffer buff = fromT1 ? replace(t1, b1) : replace(t2, b2);
+      if (buff == null)
+         buff = fromT1 ? replace(t2, b2) : replace(t1, b1);
+      return buff;
+   }
+   
+   public void remove(Buffer buff) {
+      if (!t1.remove(buff))
+         t2.remove(buff);
+   }
+   
+   /**
+    * The ghost lists are trimmed to the new size
+    * as blocks are next read into the pool.
+    */
+   public void resize(int numbuffs) {
+      c = numbuffs;
+      p = Math.min(p, c);
+   }
+   
+   public String name() {
+      return "arc";
+   }
+   
+   private Buffer replace(LinkedHashSet<Buffer> t, LinkedHashSet<Block> b) {
+      Buffer buff = TwoQPolicy.removeFirstUnpinned(t);
+      if (buff != null)
+         b.add(buff.block());
+      return buff;
+   }
+   
+   private void removeFirst(LinkedHashSet<Block> b) {
+      Iterator<Block> iter = b.iterator();
+      iter.next();
+      iter.remove();
+   }
+}
@@ -1,15 +1,40 @@
 package simpledb.buffer;
 
 import simpledb.file.*;
+import java.util.*;
 
 /**
- * Manages the pinning and unpinning of buffers to blocks.
+ * Manages the pinning and unpinning of buffers to blocks,
+ * for one stripe of the buffer pool.
+ * Resident buffers are located through a page table keyed on
+ * their block, and buffers that have never been used are kept
+ * on a free list, so pinning does not require a scan of the pool.
+ * When the free list is empty, the buffer to replace is chosen
+ * by a {@link ReplacementPolicy}.
+ * Each stripe is its own monitor, and threads waiting for
+ * a buffer of the stripe wait on that monitor.
+ * A block that is not in the pool is read after the
+ * stripe's lock has been released, so that a read does not hold
+ * up the pins of other blocks; pins of the same block
+ * wait on its buffer until the read completes.
+ * Blocks read ahead of a scan are kept out of the replacement
+ * policy's reference history and the hit and miss statistics
+ * until they are first pinned.
+ * A stripe can be grown or shrunk while the system is running.
  * @author Edward Sciore
  *
  */
 class BasicBufferMgr {
-   private Buffer[] bufferpool;
-   private int numAvailable;
+   private int id;
+   private Set<Buffer> bufferpool;
+   private Map<Block,Buffer> bufferPoolMap;
+   private Deque<Buffer> freeList;
+   private Set<Buffer> readAhead = new HashSet<Buffer>();  // read ahead, and not pinned since
+   private ReplacementPolicy policy;
+   private PageArena arena;
+   private int numAvailable, numWaiting = 0;
+   private Map<String,BufferStats> stats = new HashMap<String,BufferStats>();
+   private LatencyHistogram pinLatency = new LatencyHistogram();
    
    /**
     * Creates a buffer manager having the specified number 
@@ -22,75 +47,411 @@ class BasicBufferMgr {
     * Thus this constructor cannot be called until 
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * @param id the id of the stripe
     * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @param arena the arena that holds the pages of the buffers
     */
-   BasicBufferMgr(int numbuffs) {
-      bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
-      for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer();
+   BasicBufferMgr(int id, int numbuffs, String policyname, PageArena arena) {
+      this.id = id;
+      this.arena = arena;
+      bufferpool = new LinkedHashSet<Buffer>(2 * numbuffs);
+      bufferPoolMap = new HashMap<Block,Buffer>(2 * numbuffs);
+      freeList = new ArrayDeque<Buffer>(numbuffs);
+      policy = newPolicy(policyname, numbuffs);
+      numAvailable = 0;
+      addBuffers(numbuffs);
    }
    
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Adds the specified number of new buffers to the stripe,
+    * and wakes any threads waiting for a buffer.
+    * @param numbuffs the number of buffers to add
+    */
+   synchronized void grow(int numbuffs) {
+      addBuffers(numbuffs);
+      policy.resize(bufferpool.size());
+      notifyAll();
+   }
+   
+   /**
+    * Removes the specified number of buffers from the stripe,
+    * and releases their pages to the arena.
+    * Unused buffers are removed first, and then unpinned
+    * buffers chosen by the replacement policy;
+    * a dirty buffer is written to disk before it is removed.
+    * If too few buffers are unpinned, the method waits for
+    * buffers to be unpinned, up to the specified time.
+    * @param numbuffs the number of buffers to remove
+    * @param maxtime the maximum time to wait, in milliseconds
+    * @return the number of buffers actually removed
+    * @throws InterruptedException if the wait is interrupted
+    */
+   synchronized int shrink(int numbuffs, long maxtime) throws InterruptedException {
+      long timestamp = System.currentTimeMillis();
+      int removed = 0;
+      while (removed < numbuffs) {
+         Buffer buff = freeList.poll();
+         if (buff == null && numAvailable > 0) {
+            buff = policy.chooseUnpinnedBuffer(null);
+            if (buff != null) {
+               policy.remove(buff);
+               buff.flush();
+               bufferPoolMap.remove(buff.block());
+               readAhead.remove(buff);
+            }
+         }
+         if (buff != null) {
+            bufferpool.remove(buff);
+            arena.release(buff.contents());
+            numAvailable--;
+            removed++;
+         }
+         else {
+            long remaining = maxtime - (System.currentTimeMillis() - timestamp);
+            if (remaining <= 0)
+               break;
+            awaitBuffer(remaining);
+         }
+      }
+      policy.resize(bufferpool.size());
+      return removed;
+   }
+   
+   /**
+    * Pins the dirty buffers modified by the specified transaction,
+    * and adds them to the specified list,
+    * so that they can be written by a batch write.
     * @param txnum the transaction's id number
+    * @param buffs the list of pinned buffers
     */
-   synchronized void flushAll(int txnum) {
+   synchronized void pinModified(int txnum, List<Buffer> buffs) {
       for (Buffer buff : bufferpool)
-         if (buff.isModifiedBy(txnum))
-         buff.flush();
+         if (buff.isModifiedBy(txnum)) {
+         pinForWrite(buff);
+         buffs.add(buff);
+      }
    }
    
    /**
-    * Pins a buffer to the specified block. 
+    * Pins a buffer to the specified block, waiting on this
+    * stripe until a buffer becomes available.
     * If there is already a buffer assigned to that block
     * then that buffer is used;  
-    * otherwise, an unpinned buffer from the pool is chosen.
-    * Returns a null value if there are no available buffers.
+    * otherwise, an unpinned buffer from the stripe is chosen.
+    * If a ring is specified, the chosen buffer comes
+    * from the ring whenever possible.
+    * Returns null if no buffer becomes available
+    * within the specified time.
+    * The block's contents are read (or waited for)
+    * after the stripe's lock has been released.
     * @param blk a reference to a disk block
-    * @return the pinned buffer
+    * @param ring the scan's buffer ring, or null
+    * @param maxtime the maximum time to wait, in milliseconds
+    * @return the pinned buffer, or null
+    * @throws InterruptedException if the wait is interrupted
+    */
+   Buffer pin(Block blk, BufferRing ring, long maxtime) throws InterruptedException {
+      Buffer buff;
+      synchronized (this) {
+         long timestamp = System.currentTimeMillis();
+         buff = tryPin(blk, ring);
+         if (buff == null) {
+            long waitstart = System.nanoTime();
+            long remaining = maxtime;
+            while (buff == null && remaining > 0) {
+               awaitBuffer(remaining);
+               buff = tryPin(blk, ring);
+               remaining = maxtime - (System.currentTimeMillis() - timestamp);
+            }
+            statsFor(blk.fileName()).waitTime += System.nanoTime() - waitstart;
+         }
+         // pass along a wakeup that this pin did not use
+         if (buff != null && numAvailable > 0 && numWaiting > 0)
+            notify();
+         if (buff == null)
+            return null;
+      }
+      try {
+         boolean loaded = false;
+         while (!loaded) {
+            if (buff.beginLoad()) {
+               buff.load();
+               loaded = true;
+            }
+            else
+               loaded = buff.awaitLoad();
+         }
+      }
+      catch (RuntimeException e) {
+         unpin(buff);
+         throw e;
+      }
+      catch (InterruptedException e) {
+         unpin(buff);
+         throw e;
+      }
+      return buff;
+   }
+   
+   /**
+    * Reads the specified block into a buffer of the stripe
+    * ahead of a scan, if it is not already in the pool
+    * and a buffer is available without waiting.
+    * The buffer is pinned only while the block is read.
+    * The read is not a reference to the block: the policy is
+    * told that the buffer was {@link ReplacementPolicy#loaded(Buffer) loaded},
+    * and the first real pin of the buffer counts as
+    * the miss that read the block.
+    * @param blk a reference to a disk block
+    * @param ring the scan's buffer ring, or null
     */
-   synchronized Buffer pin(Block blk) {
+   void readAhead(Block blk, BufferRing ring) {
+      Buffer buff;
+      synchronized (this) {
+         if (bufferPoolMap.containsKey(blk))
+            return;
+         buff = chooseUnpinnedBuffer(blk, ring);
+         if (buff == null)
+            return;
+         buff.assignToBlock(blk);
+         bufferPoolMap.put(blk, buff);
+         if (ring != null)
+            ring.add(id, buff);
+         numAvailable--;
+         buff.pin();
+         policy.loaded(buff);
+         readAhead.add(buff);
+      }
+      try {
+         if (buff.beginLoad())
+            buff.load();
+      }
+      finally {
+         unpin(buff);
+      }
+   }
+   
+   /**
+    * Waits on this stripe until it has an unpinned buffer,
+    * or until the specified time has elapsed.
+    * @param maxtime the maximum time to wait, in milliseconds
+    * @throws InterruptedException if the wait is interrupted
+    */
+   synchronized void awaitAvailable(long maxtime) throws InterruptedException {
+      if (numAvailable == 0)
+         awaitBuffer(maxtime);
+   }
+   
+   private void awaitBuffer(long maxtime) throws InterruptedException {
+      numWaiting++;
+      try {
+         wait(maxtime);
+      }
+      finally {
+         numWaiting--;
+      }
+   }
+   
+   private Buffer tryPin(Block blk, BufferRing ring) {
       Buffer buff = findExistingBuffer(blk);
       if (buff == null) {
-         buff = chooseUnpinnedBuffer();
+         buff = chooseUnpinnedBuffer(blk, ring);
          if (buff == null)
             return null;
          buff.assignToBlock(blk);
+         bufferPoolMap.put(blk, buff);
+         if (ring != null)
+            ring.add(id, buff);
+         statsFor(blk.fileName()).misses++;
+      }
+      else if (readAhead.remove(buff)) {
+         policy.remove(buff);
+         statsFor(blk.fileName()).misses++;
       }
+      else
+         statsFor(blk.fileName()).hits++;
       if (!buff.isPinned())
          numAvailable--;
       buff.pin();
+      policy.pinned(buff);
       return buff;
    }
    
    /**
     * Allocates a new block in the specified file, and
     * pins a buffer to it. 
+    * The buffer is taken from the free list, so that it
+    * has nothing to write, since the caller holds the lock
+    * that serializes appends;
+    * see {@link #prepareNew(BufferRing)}.
     * Returns null (without allocating the block) if 
-    * there are no available buffers.
+    * the free list is empty.
     * @param filename the name of the file
     * @param fmtr a pageformatter object, used to format the new block
+    * @param ring the writer's buffer ring, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = chooseUnpinnedBuffer();
+   synchronized Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = freeList.poll();
       if (buff == null)
          return null;
       buff.assignToNew(filename, fmtr);
+      bufferPoolMap.put(buff.block(), buff);
+      if (ring != null)
+         ring.add(id, buff);
       numAvailable--;
       buff.pin();
+      policy.pinned(buff);
       return buff;
    }
    
+   /**
+    * Makes sure that the free list has a buffer for
+    * {@link #pinNew(String, PageFormatter, BufferRing) pinNew}.
+    * If the list is empty, the buffer that a pin would replace
+    * (preferably the ring's reusable buffer) is written to disk
+    * if it is dirty, removed from the replacement policy,
+    * and moved to the free list.
+    * Returns false if all buffers are pinned.
+    * @param ring the writer's buffer ring, or null
+    * @return true if the free list has a buffer
+    */
+   synchronized boolean prepareNew(BufferRing ring) {
+      if (!freeList.isEmpty())
+         return true;
+      Buffer buff = chooseUnpinnedBuffer(null, ring);
+      if (buff == null)
+         return false;
+      buff.flush();
+      policy.remove(buff);
+      freeList.add(buff);
+      return true;
+   }
+   
    /**
     * Unpins the specified buffer.
+    * If the buffer's pin count becomes 0,
+    * then one thread waiting on this stripe is notified.
     * @param buff the buffer to be unpinned
     */
    synchronized void unpin(Buffer buff) {
       buff.unpin();
-      if (!buff.isPinned())
+      if (!buff.isPinned()) {
          numAvailable++;
+         policy.unpinned(buff);
+         if (numWaiting > 0)
+            notify();
+      }
+   }
+   
+   /**
+    * Pins the buffer assigned to the specified block,
+    * if it is dirty due to a modification by the specified
+    * transaction, so that it can be written by a batch write.
+    * @param blk a reference to a disk block
+    * @param txnum the transaction's id number
+    * @return the pinned buffer, or null if the block is not dirty
+    */
+   synchronized Buffer pinModified(Block blk, int txnum) {
+      Buffer buff = bufferPoolMap.get(blk);
+      if (buff == null || !buff.isModifiedBy(txnum))
+         return null;
+      pinForWrite(buff);
+      return buff;
+   }
+   
+   /**
+    * Pins a resident buffer for a batch write.
+    * The pin keeps the buffer from being replaced while its
+    * page is written; it is not counted as a buffer hit,
+    * and the replacement policy is not told about it,
+    * so that writing a page is not a reference to its block.
+    * @param buff a resident buffer of this stripe
+    */
+   private void pinForWrite(Buffer buff) {
+      if (!buff.isPinned())
+         numAvailable--;
+      buff.pin();
+   }
+   
+   /**
+    * Marks the buffers of the specified file as clean.
+    * @param filename the name of the file
+    */
+   synchronized void discard(String filename) {
+      for (Map.Entry<Block,Buffer> e : bufferPoolMap.entrySet())
+         if (e.getKey().fileName().equals(filename))
+         e.getValue().markWritten();
+   }
+   
+   /**
+    * Adds the dirty, unpinned buffers of this stripe
+    * whose recovery LSN precedes the specified LSN
+    * to the specified list.
+    * A buffer whose modifications were not logged
+    * has a negative recovery LSN, and so is always added.
+    * @param buffs the list of buffers to be written
+    * @param beforeLSN the LSN that the recovery LSNs must precede
+    */
+   synchronized void collectDirty(List<Buffer> buffs, long beforeLSN) {
+      for (Buffer buff : bufferpool)
+         if (!buff.isPinned() && buff.isModified() && buff.recoveryLSN() < beforeLSN)
+         buffs.add(buff);
+   }
+   
+   /**
+    * Adds the blocks of this stripe's buffers that have
+    * logged modifications not yet written to disk
+    * to the specified map, together with their recovery LSNs.
+    * @param pages the dirty page table being collected
+    */
+   synchronized void collectDirtyPages(Map<Block,Long> pages) {
+      for (Buffer buff : bufferpool) {
+         long lsn = buff.recoveryLSN();
+         if (lsn >= 0 && buff.block() != null)
+            pages.put(buff.block(), lsn);
+      }
+   }
+   
+   /**
+    * Adds the blocks currently held by the stripe's buffers
+    * to the specified collection.
+    * @param blks the collection of blocks
+    */
+   synchronized void collectResident(Collection<Block> blks) {
+      blks.addAll(bufferPoolMap.keySet());
+   }
+   
+   /**
+    * Returns true if the specified block is in the stripe.
+    * @param blk a reference to a disk block
+    * @return true if a buffer is assigned to the block
+    */
+   synchronized boolean isResident(Block blk) {
+      return bufferPoolMap.containsKey(blk);
+   }
+   
+   /**
+    * Returns true if the stripe has a buffer on its free list,
+    * which holds no block.
+    * @return true if the stripe has an unused buffer
+    */
+   synchronized boolean hasUnused() {
+      return !freeList.isEmpty();
+   }
+   
+   /**
+    * Writes the specified buffer to disk, if it is still
+    * dirty and unpinned.
+    * A buffer can only be modified while it is pinned,
+    * and it cannot be pinned while the stripe is locked,
+    * so its page does not change while it is written.
+    * @param buff a buffer of this stripe
+    */
+   synchronized void flushIfUnpinned(Buffer buff) {
+      if (!buff.isPinned())
+         buff.flush();
    }
    
    /**
@@ -101,19 +462,175 @@ class BasicBufferMgr {
       return numAvailable;
    }
    
+   /**
+    * Returns the number of calls to pin that found
+    * their block already in the pool.
+    * @return the number of buffer hits
+    */
+   synchronized long hits() {
+      long n = 0;
+      for (BufferStats s : stats.values())
+         n += s.hits;
+      return n;
+   }
+   
+   /**
+    * Returns the number of calls to pin that had to
+    * read their block from disk.
+    * @return the number of buffer misses
+    */
+   synchronized long misses() {
+      long n = 0;
+      for (BufferStats s : stats.values())
+         n += s.misses;
+      return n;
+   }
+   
+   /**
+    * Records that a pin of a block of the specified file
+    * waited for the specified time outside of the stripe.
+    * @param filename the name of the file
+    * @param nanos the waiting time, in nanoseconds
+    */
+   synchronized void recordWait(String filename, long nanos) {
+      statsFor(filename).waitTime += nanos;
+   }
+   
+   /**
+    * Records that a pin of a block of the specified file
+    * was aborted.
+    * @param filename the name of the file
+    */
+   synchronized void recordAbort(String filename) {
+      statsFor(filename).aborts++;
+   }
+   
+   /**
+    * Adds the statistics of this stripe to the specified map,
+    * which is keyed on the file name.
+    * @param totals the statistics of the preceding stripes
+    */
+   synchronized void collectStats(Map<String,BufferStats> totals) {
+      for (BufferStats s : stats.values()) {
+         BufferStats t = totals.get(s.getFileName());
+         if (t == null) {
+            t = new BufferStats(s.getFileName());
+            totals.put(s.getFileName(), t);
+         }
+         t.add(s);
+      }
+   }
+   
+   /**
+    * Returns the histogram of the latencies of pins
+    * of blocks in this stripe.
+    * The buffer manager records the latencies,
+    * since it measures the complete pin.
+    * @return the pin latency histogram
+    */
+   LatencyHistogram pinLatency() {
+      return pinLatency;
+   }
+   
+   /**
+    * Returns the name of the replacement policy.
+    * @return the policy name
+    */
+   String policyName() {
+      return policy.name();
+   }
+   
+   /**
+    * Returns the statistics of the specified file.
+    * The temporary tables share one entry, since each query
+    * creates new ones; otherwise the map would keep an entry
+    * for every temporary table that the system ever created.
+    * @param filename the name of the file
+    * @return the statistics that the file's pins update
+    */
+   private BufferStats statsFor(String filename) {
+      String key = FileMgr.isTempFile(filename) ? BufferStats.TEMP_FILES : filename;
+      BufferStats s = stats.get(key);
+      if (s == null) {
+         s = new BufferStats(key);
+         stats.put(key, s);
+      }
+      return s;
+   }
+   
    private Buffer findExistingBuffer(Block blk) {
-      for (Buffer buff : bufferpool) {
-         Block b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
+      return bufferPoolMap.get(blk);
+   }
+   
+   /**
+    * Returns the number of buffers in the pool.
+    * @return the size of the pool
+    */
+   synchronized int size() {
+      return bufferpool.size();
+   }
+   
+   /**
+    * Chooses the buffer to hold a block that is not in the pool.
+    * The ring's reusable buffer is preferred, if there is one.
+    * Otherwise the buffer comes from the free list if possible,
+    * and from the replacement policy if not.
+    * The buffer's current block is dropped from the page table,
+    * and counted as an eviction.
+    * @param blk the block to be assigned, or null for a new block
+    * @param ring the caller's buffer ring, or null
+    * @return an unpinned buffer, or null if all buffers are pinned
+    */
+   private Buffer chooseUnpinnedBuffer(Block blk, BufferRing ring) {
+      Buffer buff = null;
+      if (ring != null) {
+         buff = ring.reusableBuffer(id);
+         if (buff != null && bufferPoolMap.get(buff.block()) != buff)
+            buff = null;  // the buffer was removed from the stripe
+         if (buff != null)
+            policy.remove(buff);
+      }
+      if (buff == null && !freeList.isEmpty())
+         return freeList.poll();
+      if (buff == null && numAvailable > 0)
+         buff = policy.chooseUnpinnedBuffer(blk);
+      if (buff != null) {
+         Block old = buff.block();
+         bufferPoolMap.remove(old);
+         readAhead.remove(buff);
+         BufferStats s = statsFor(old.fileName());
+         s.evictions++;
+         if (buff.isModified())
+            s.dirtyEvictions++;
       }
-      return null;
+      return buff;
    }
    
-   private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+   private void addBuffers(int numbuffs) {
+      for (int i=0; i<numbuffs; i++) {
+         Buffer buff = new Buffer(arena.allocate());
+         bufferpool.add(buff);
+         freeList.add(buff);
+      }
+      numAvailable += numbuffs;
+   }
+   
+   /**
+    * Creates the replacement policy having the specified name.
+    * @param policyname one of "clock", "lru2", "2q" or "arc"
+    * @param numbuffs the number of buffers in the pool
+    * @return the replacement policy
+    */
+   private static ReplacementPolicy newPolicy(String policyname, int numbuffs) {
+      if (policyname.equals("clock"))
+         return new ClockPolicy();
+      else if (policyname.equals("lru2"))
+         return new LRUKPolicy(2, numbuffs);
+      else if (policyname.equals("2q"))
+         return new TwoQPolicy(numbuffs);
+      else if (policyname.equals("arc"))
+         return new ARCPolicy(numbuffs);
+      else
+         throw new RuntimeException("unknown buffer replacement policy " + policyname);
    }
 }
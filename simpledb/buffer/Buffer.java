@@ -9,16 +9,21 @@ import simpledb.file.*;
  * such as the disk block associated with the page,
  * the number of times the block has been pinned,
  * whether the contents of the page have been modified,
- * and if so, the id of the modifying transaction and
- * the LSN of the corresponding log record.
+ * and if so, the id of the modifying transaction,
+ * the LSN of the corresponding log record, and the LSN
+ * of the first logged modification since the page was last written
+ * (its recovery LSN, which checkpoints record).
  * @author Edward Sciore
  */
 public class Buffer {
-   private Page contents = new Page();
+   private Page contents;
    private Block blk = null;
    private int pins = 0;
    private int modifiedBy = -1;  // negative means not modified
-   private int logSequenceNumber = -1; // negative means no corresponding log record
+   private long logSequenceNumber = -1; // negative means no corresponding log record
+   private volatile long recoveryLSN = -1; // negative means no logged modification since the last write
+   private boolean valid = true;    // false if the page does not hold the block's contents
+   private boolean loading = false; // true while a thread reads the block
 
    /**
     * Creates a new buffer, wrapping a new 
@@ -34,7 +39,28 @@ public class Buffer {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     */
-   public Buffer() {}
+   public Buffer() {
+      this(new Page());
+   }
+   
+   /**
+    * Creates a new buffer that wraps the specified page.
+    * The buffer manager uses this constructor to create
+    * buffers whose pages come from its
+    * {@link simpledb.file.PageArena page arena}.
+    * @param contents the buffer's page
+    */
+   Buffer(Page contents) {
+      this.contents = contents;
+   }
+   
+   /**
+    * Returns the page wrapped by the buffer.
+    * @return the buffer's page
+    */
+   Page contents() {
+      return contents;
+   }
    
    /**
     * Returns the integer value at the specified offset of the
@@ -59,6 +85,18 @@ public class Buffer {
    public String getString(int offset) {
       return contents.getString(offset);
    }
+   
+   /**
+    * Compares the string at the specified offset of the
+    * buffer's page with the specified encoded string,
+    * without creating a String.
+    * @param offset the byte offset of the page
+    * @param val a string encoded by {@link Page#encode(String)}
+    * @return the result of {@link Page#compareString(int, byte[])}
+    */
+   public int compareString(int offset, byte[] val) {
+      return contents.compareString(offset, val);
+   }
 
    /**
     * Writes an integer to the specified offset of the
@@ -74,10 +112,14 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setInt(int offset, int val, int txnum, int lsn) {
+   public void setInt(int offset, int val, int txnum, long lsn) {
       modifiedBy = txnum;
-      if (lsn >= 0)
+      if (lsn >= 0) {
+	      if (recoveryLSN < 0)
+	         recoveryLSN = lsn;
 	      logSequenceNumber = lsn;
+	      contents.setLSN(lsn);
+      }
       contents.setInt(offset, val);
    }
 
@@ -95,10 +137,14 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setString(int offset, String val, int txnum, int lsn) {
+   public void setString(int offset, String val, int txnum, long lsn) {
       modifiedBy = txnum;
-      if (lsn >= 0)
+      if (lsn >= 0) {
+	      if (recoveryLSN < 0)
+	         recoveryLSN = lsn;
 	      logSequenceNumber = lsn;
+	      contents.setLSN(lsn);
+      }
       contents.setString(offset, val);
    }
 
@@ -123,9 +169,39 @@ public class Buffer {
          SimpleDB.logMgr().flush(logSequenceNumber);
          contents.write(blk);
          modifiedBy = -1;
+         recoveryLSN = -1;
       }
    }
 
+   /**
+    * Returns the LSN of the most recent log record
+    * for a modification of the page.
+    * @return the LSN, or a negative value if there is none
+    */
+   long logSequenceNumber() {
+      return logSequenceNumber;
+   }
+   
+   /**
+    * Returns the LSN of the first logged modification
+    * of the page since it was last written.
+    * The log records before this LSN are not needed
+    * to recover the page.
+    * @return the LSN, or a negative value if there is none
+    */
+   long recoveryLSN() {
+      return recoveryLSN;
+   }
+   
+   /**
+    * Marks the page as clean, after it has been written
+    * to disk by a batch write of the buffer manager.
+    */
+   void markWritten() {
+      modifiedBy = -1;
+      recoveryLSN = -1;
+   }
+
    /**
     * Increases the buffer's pin count.
     */
@@ -160,8 +236,19 @@ public class Buffer {
    }
 
    /**
-    * Reads the contents of the specified block into
-    * the buffer's page.
+    * Returns true if the buffer's page has been modified
+    * since it was last written to disk.
+    * @return true if the buffer is dirty
+    */
+   boolean isModified() {
+      return modifiedBy >= 0;
+   }
+
+   /**
+    * Assigns the buffer to the specified block,
+    * without reading the block's contents;
+    * the pinning thread reads them by calling {@link #load()}
+    * after releasing the lock of the buffer's stripe.
     * If the buffer was dirty, then the contents
     * of the previous page are first written to disk.
     * @param b a reference to the data block
@@ -169,8 +256,57 @@ public class Buffer {
    void assignToBlock(Block b) {
       flush();
       blk = b;
-      contents.read(blk);
       pins = 0;
+      synchronized (this) {
+         valid = false;
+      }
+   }
+   
+   /**
+    * Claims the job of reading the buffer's block.
+    * Returns true if the page does not hold the block's contents
+    * and no other thread is reading them;
+    * the calling thread must then call {@link #load()}.
+    * @return true if the calling thread must read the block
+    */
+   synchronized boolean beginLoad() {
+      if (valid || loading)
+         return false;
+      loading = true;
+      return true;
+   }
+   
+   /**
+    * Reads the contents of the buffer's block into its page,
+    * and wakes the threads waiting for the read.
+    * If the read fails, the page stays invalid,
+    * and the next thread to pin the block reads it again.
+    */
+   void load() {
+      boolean ok = false;
+      try {
+         contents.read(blk);
+         ok = true;
+      }
+      finally {
+         synchronized (this) {
+            valid = ok;
+            loading = false;
+            notifyAll();
+         }
+      }
+   }
+   
+   /**
+    * Waits until no thread is reading the buffer's block.
+    * @return true if the page holds the block's contents,
+    * and false if the read failed
+    * @throws InterruptedException if the wait is interrupted
+    */
+   synchronized boolean awaitLoad() throws InterruptedException {
+      while (loading)
+         wait();
+      return valid;
    }
 
    /**
@@ -186,5 +322,8 @@ public class Buffer {
       fmtr.format(contents);
       blk = contents.append(filename);
       pins = 0;
+      synchronized (this) {
+         valid = true;
+      }
    }
 }
\ No newline at end of file
@@ -1,18 +1,25 @@
 package simpledb.buffer;
 
+import simpledb.server.SimpleDB;
 import simpledb.file.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The publicly-accessible buffer manager.
- * A buffer manager wraps a basic buffer manager, and
- * provides the same methods. The difference is that
- * the methods {@link #pin(Block) pin} and 
+ * The pages of all buffers are slices of a single off-heap
+ * {@link PageArena}.
+ * The buffer pool is partitioned into stripes, and each block
+ * belongs to the stripe selected by its hash code.
+ * Each stripe is a basic buffer manager with its own lock,
+ * so pins of blocks in different stripes do not contend.
+ * The methods {@link #pin(Block) pin} and 
  * {@link #pinNew(String, PageFormatter) pinNew}
  * will never return null.
- * If no buffers are currently available, then the
- * calling thread will be placed on a waiting list.
- * The waiting threads are removed from the list when 
- * a buffer becomes available.
+ * If no buffers are currently available in the block's stripe,
+ * then the calling thread waits on that stripe,
+ * and is woken when one of its buffers is unpinned.
  * If a thread has been waiting for a buffer for an
  * excessive amount of time (currently, 10 seconds)
  * then a {@link BufferAbortException} is thrown.
@@ -20,11 +27,25 @@ import simpledb.file.*;
  */
 public class BufferMgr {
    private static final long MAX_TIME = 10000; // 10 seconds
-   private BasicBufferMgr bufferMgr;
+   private static final int MAX_RING_SIZE = 32;
+   private static final int MIN_STRIPE_SIZE = 64;
+   private static final int MAX_READ_AHEAD_REQUESTS = 1024;
+   
+   /**
+    * The smallest number of buffers that the pool can be resized to.
+    */
+   public static final int MIN_POOL_SIZE = 8;
+   private BasicBufferMgr[] stripes;
+   private PageArena arena;
+   private volatile int numbuffers;
+   private Object appendLock = new Object();
+   private BufferWriter writer = null;
+   private ThreadPoolExecutor readAheadPool = null;
+   private volatile int readAheadDepth = 0;
    
    /**
     * Creates a new buffer manager having the specified 
-    * number of buffers.
+    * number of buffers, divided into the specified number of stripes.
     * This constructor depends on both the {@link FileMgr} and
     * {@link simpledb.log.LogMgr LogMgr} objects 
     * that it gets from the class
@@ -34,9 +55,43 @@ public class BufferMgr {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * ("clock", "lru2", "2q" or "arc")
+    * @param numstripes the number of stripes
+    * @throws RuntimeException if the number of buffers is out of range
+    * (see {@link #checkPoolSize(int, int)})
+    */
+   public BufferMgr(int numbuffers, String policyname, int numstripes) {
+      checkPoolSize(numbuffers, numstripes);
+      this.numbuffers = numbuffers;
+      arena = new PageArena(numbuffers);
+      stripes = new BasicBufferMgr[numstripes];
+      for (int i=0; i<numstripes; i++) {
+         int n = numbuffers / numstripes + (i < numbuffers % numstripes ? 1 : 0);
+         stripes[i] = new BasicBufferMgr(i, n, policyname, arena);
+      }
+   }
+   
+   /**
+    * Creates a new buffer manager having the specified
+    * number of buffers.
+    * The pool has one stripe for each 64
+    * buffers, up to twice the number of processors;
+    * a small pool therefore has a single stripe.
+    * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    */
+   public BufferMgr(int numbuffers, String policyname) {
+      this(numbuffers, policyname, defaultStripes(numbuffers));
+   }
+   
+   /**
+    * Creates a new buffer manager having the specified
+    * number of buffers, which uses the clock replacement policy.
+    * @param numbuffers the number of buffer slots to allocate
     */
    public BufferMgr(int numbuffers) {
-      bufferMgr = new BasicBufferMgr(numbuffers);
+      this(numbuffers, "clock");
    }
    
    /**
@@ -47,21 +102,38 @@ public class BufferMgr {
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(Block blk) {
+   public Buffer pin(Block blk) {
+      return pin(blk, null);
+   }
+   
+   /**
+    * Pins a buffer to the specified block on behalf of a
+    * sequential scan, potentially waiting until a buffer
+    * becomes available.
+    * If the block is not in the pool, it is read into a
+    * buffer of the specified ring whenever possible.
+    * @param blk a reference to a disk block
+    * @param ring the scan's buffer ring, or null
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(Block blk, BufferRing ring) {
+      long start = System.nanoTime();
+      BasicBufferMgr stripe = stripeFor(blk);
       try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pin(blk);
-         }
-         if (buff == null)
+         Buffer buff = stripe.pin(blk, ring, MAX_TIME);
+         if (buff == null) {
+            stripe.recordAbort(blk.fileName());
             throw new BufferAbortException();
+         }
          return buff;
       }
       catch(InterruptedException e) {
+         stripe.recordAbort(blk.fileName());
          throw new BufferAbortException();
       }
+      finally {
+         stripe.pinLatency().record(System.nanoTime() - start);
+      }
    }
    
    /**
@@ -73,41 +145,449 @@ public class BufferMgr {
     * @param fmtr the formatter used to initialize the page
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
+   public Buffer pinNew(String filename, PageFormatter fmtr) {
+      return pinNew(filename, fmtr, null);
+   }
+   
+   /**
+    * Pins a buffer to a new block in the specified file
+    * on behalf of a sequential writer, potentially waiting
+    * until a buffer becomes available.
+    * The new block is placed in a buffer of the specified
+    * ring whenever possible.
+    * <p>
+    * The stripe of the new block depends on its block number,
+    * which is the current size of the file.
+    * Appends are therefore serialized, so that the size
+    * cannot change between choosing the stripe and appending.
+    * The buffer to be replaced is chosen and written to disk
+    * before the lock that serializes appends is taken,
+    * so that an append does not hold up the appends of other
+    * threads while it writes a dirty page and forces the log.
+    * If the file grows in the meantime, and so the new block
+    * falls in another stripe, the method tries again.
+    * A thread that has to wait for a buffer does not
+    * hold up other appends while it waits.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the page
+    * @param ring the writer's buffer ring, or null
+    * @return the buffer pinned to that block
+    */
+   public Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      long start = System.nanoTime();
+      BasicBufferMgr stripe = null;
       try {
          long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pinNew(filename, fmtr);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pinNew(filename, fmtr);
+         while (true) {
+            int blknum = SimpleDB.fileMgr().size(filename);
+            stripe = stripeFor(new Block(filename, blknum));
+            if (stripe.prepareNew(ring)) {
+               synchronized (appendLock) {
+                  blknum = SimpleDB.fileMgr().size(filename);
+                  stripe = stripeFor(new Block(filename, blknum));
+                  Buffer buff = stripe.pinNew(filename, fmtr, ring);
+                  if (buff != null)
+                     return buff;
+               }
+               // the file grew into another stripe, or a pin took the buffer
+               if (!waitingTooLong(timestamp))
+                  continue;
+            }
+            if (waitingTooLong(timestamp)) {
+               stripe.recordAbort(filename);
+               throw new BufferAbortException();
+            }
+            long waitstart = System.nanoTime();
+            stripe.awaitAvailable(MAX_TIME);
+            stripe.recordWait(filename, System.nanoTime() - waitstart);
          }
-         if (buff == null)
-            throw new BufferAbortException();
-         return buff;
       }
       catch(InterruptedException e) {
+         stripe.recordAbort(filename);
          throw new BufferAbortException();
       }
+      finally {
+         if (stripe != null)
+            stripe.pinLatency().record(System.nanoTime() - start);
+      }
    }
    
    /**
     * Unpins the specified buffer. 
     * If the buffer's pin count becomes 0,
-    * then the threads on the wait list are notified.
+    * then a thread waiting on the buffer's stripe is notified.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      bufferMgr.unpin(buff);
-      if (!buff.isPinned())
-         notifyAll();
+   public void unpin(Buffer buff) {
+      stripeFor(buff.block()).unpin(buff);
    }
    
    /**
     * Flushes the dirty buffers modified by the specified transaction.
+    * This method examines every buffer in the pool;
+    * it is used during recovery, when the modified blocks
+    * are not known.
     * @param txnum the transaction's id number
     */
    public void flushAll(int txnum) {
-      bufferMgr.flushAll(txnum);
+      List<Buffer> buffs = new ArrayList<Buffer>();
+      for (BasicBufferMgr stripe : stripes)
+         stripe.pinModified(txnum, buffs);
+      writeBatch(buffs);
+   }
+   
+   /**
+    * Flushes the buffers of the specified blocks that are dirty
+    * due to a modification by the specified transaction.
+    * Blocks that are no longer in the pool were written when
+    * their buffers were replaced, and are skipped.
+    * @param txnum the transaction's id number
+    * @param blks the blocks modified by the transaction
+    */
+   public void flushAll(int txnum, Collection<Block> blks) {
+      List<Buffer> buffs = new ArrayList<Buffer>();
+      for (Block blk : blks) {
+         Buffer buff = stripeFor(blk).pinModified(blk, txnum);
+         if (buff != null)
+            buffs.add(buff);
+      }
+      writeBatch(buffs);
+   }
+   
+   /**
+    * Writes the pages of the specified pinned buffers with
+    * one batch write, and then unpins them.
+    * The log is flushed once, up to the highest LSN of the buffers.
+    * The file manager sorts the pages by block, and writes each
+    * run of adjacent blocks with a single gathering write.
+    * The pins keep the buffers from being replaced during the
+    * write, and the transaction's exclusive locks keep their
+    * pages from being modified.
+    * @param buffs the pinned buffers
+    */
+   private void writeBatch(List<Buffer> buffs) {
+      try {
+         if (buffs.isEmpty())
+            return;
+         long lsn = -1;
+         SortedMap<Block,Page> pages = new TreeMap<Block,Page>();
+         for (Buffer buff : buffs) {
+            lsn = Math.max(lsn, buff.logSequenceNumber());
+            pages.put(buff.block(), buff.contents());
+         }
+         if (lsn >= 0)
+            SimpleDB.logMgr().flush(lsn);
+         SimpleDB.fileMgr().write(pages);
+         for (Buffer buff : buffs)
+            buff.markWritten();
+      }
+      finally {
+         for (Buffer buff : buffs)
+            unpin(buff);
+      }
+   }
+   
+   /**
+    * Marks the buffers of the specified file as clean,
+    * so that none of its blocks are written to disk again.
+    * This method is called before a temporary file is deleted.
+    * The buffers stay in the pool until they are replaced.
+    * @param filename the name of the file
+    */
+   public void discard(String filename) {
+      for (BasicBufferMgr stripe : stripes)
+         stripe.discard(filename);
+   }
+   
+   /**
+    * Changes the number of buffers in the pool,
+    * while the system is running.
+    * The new buffers are divided among the stripes.
+    * When the pool shrinks, unused and unpinned buffers
+    * are removed (dirty ones are written to disk first),
+    * waiting a fixed time period for pinned buffers to
+    * be unpinned; buffers that remain pinned after that
+    * time are not removed, and a message reports
+    * that the pool is larger than requested.
+    * The new size is checked as when the pool was created,
+    * and must also be at least the number of stripes
+    * and the number of buffers that are currently pinned.
+    * @param newsize the new number of buffers
+    * @return the resulting number of buffers
+    * @throws RuntimeException if the new size is out of range
+    */
+   public synchronized int resize(int newsize) {
+      int pinned = numbuffers - available();
+      checkPoolSize(newsize, Math.max(stripes.length, pinned));
+      arena.reserve(newsize - numbuffers);
+      try {
+         for (int i=0; i<stripes.length; i++) {
+            int target = newsize / stripes.length + (i < newsize % stripes.length ? 1 : 0);
+            int current = stripes[i].size();
+            if (target > current)
+               stripes[i].grow(target - current);
+            else if (target < current)
+               stripes[i].shrink(current - target, MAX_TIME);
+         }
+      }
+      catch(InterruptedException e) {
+         // keep whatever was removed so far
+      }
+      int n = 0;
+      for (BasicBufferMgr stripe : stripes)
+         n += stripe.size();
+      numbuffers = n;
+      if (n != newsize)
+         System.err.println("buffer pool resized to " + n + " buffers instead of "
+                               + newsize + ", since some buffers stayed pinned");
+      return n;
+   }
+   
+   /**
+    * Checks that a buffer pool can have the specified number
+    * of buffers, which must be at least {@link #MIN_POOL_SIZE}
+    * and the specified minimum, and few enough for their pages
+    * to fit in the memory available to the JVM.
+    * The size is checked when a pool is created and
+    * whenever it is resized.
+    * @param numbuffs the number of buffers
+    * @param minimum the number of buffers that the pool needs
+    * @throws RuntimeException if the size is out of range
+    */
+   private static void checkPoolSize(int numbuffs, int minimum) {
+      if (numbuffs < MIN_POOL_SIZE || numbuffs < minimum)
+         throw new RuntimeException("buffer pool size " + numbuffs + " is below the minimum of "
+                                       + Math.max(MIN_POOL_SIZE, minimum) + " buffers");
+      if ((long) numbuffs * Page.BLOCK_SIZE > Runtime.getRuntime().maxMemory())
+         throw new RuntimeException("buffer pool size " + numbuffs + " exceeds the available memory");
+   }
+   
+   /**
+    * Returns the number of buffers in the pool.
+    * @return the size of the pool
+    */
+   public int size() {
+      return numbuffers;
+   }
+   
+   /**
+    * Starts a background thread that periodically writes
+    * dirty, unpinned buffers to disk.
+    * @param delay the time between rounds, in milliseconds
+    * @param maxpages the maximum number of pages written in one round
+    */
+   public synchronized void startWriter(long delay, int maxpages) {
+      if (writer == null) {
+         writer = new BufferWriter(this, delay, maxpages);
+         writer.start();
+      }
+   }
+   
+   /**
+    * Stops the background writer, if it is running.
+    */
+   public synchronized void stopWriter() {
+      if (writer != null) {
+         writer.shutdown();
+         writer = null;
+      }
+   }
+   
+   /**
+    * Writes the dirty, unpinned buffers whose recovery LSN
+    * precedes the specified LSN, in block order.
+    * A checkpoint calls this method to write the pages that have
+    * been dirty since before the previous checkpoint, so that
+    * the log records needed to recover them can be discarded.
+    * @param beforeLSN the LSN that the recovery LSNs must precede
+    */
+   public void writeDirtyPages(long beforeLSN) {
+      BufferWriter.writeDirtyBuffers(this, Integer.MAX_VALUE, beforeLSN);
+   }
+   
+   /**
+    * Returns the dirty page table: the blocks whose buffers have
+    * logged modifications that are not yet on disk, mapped to
+    * their recovery LSNs.
+    * The table is collected one stripe at a time, without
+    * stopping the transactions that modify the buffers.
+    * @return the map from dirty blocks to their recovery LSNs
+    */
+   public Map<Block,Long> dirtyPages() {
+      Map<Block,Long> pages = new HashMap<Block,Long>();
+      for (BasicBufferMgr stripe : stripes())
+         stripe.collectDirtyPages(pages);
+      return pages;
+   }
+   
+   /**
+    * Starts a pool of threads that read blocks into the
+    * buffer pool ahead of sequential scans.
+    * @param numthreads the number of threads
+    * @param depth the number of blocks to read ahead of a scan
+    * @see #readAhead(Block, BufferRing)
+    */
+   public synchronized void startReadAhead(int numthreads, int depth) {
+      if (readAheadPool == null) {
+         readAheadPool = new ThreadPoolExecutor(numthreads, numthreads,
+               0, TimeUnit.MILLISECONDS,
+               new ArrayBlockingQueue<Runnable>(MAX_READ_AHEAD_REQUESTS),
+               new ThreadFactory() {
+                  public Thread newThread(Runnable r) {
+                     Thread t = new Thread(r, "simpledb-read-ahead");
+                     t.setDaemon(true);
+                     return t;
+                  }
+               },
+               new ThreadPoolExecutor.DiscardPolicy());
+         readAheadDepth = depth;
+      }
+   }
+   
+   /**
+    * Stops the read-ahead threads, if they are running.
+    * Requests that have not started are discarded.
+    * The threads are not interrupted, since interrupting
+    * a read would close the file's channel.
+    */
+   public synchronized void stopReadAhead() {
+      if (readAheadPool != null) {
+         readAheadDepth = 0;
+         readAheadPool.getQueue().clear();
+         readAheadPool.shutdown();
+         readAheadPool = null;
+      }
+   }
+   
+   /**
+    * Returns the number of blocks that a sequential scan
+    * should read ahead, or 0 if read-ahead is not running.
+    * @return the read-ahead depth
+    */
+   public int readAheadDepth() {
+      return readAheadDepth;
+   }
+   
+   /**
+    * Asks for the specified block to be read into the pool
+    * in the background, through the specified buffer ring.
+    * The request is advisory: it is ignored if the block
+    * is already in the pool, if the ring's scan has already
+    * reached the block, if all buffers of its stripe are
+    * pinned when the request is carried out, or if too many
+    * requests are outstanding.
+    * The block is read without waiting for a buffer,
+    * and without counting as a pin in the statistics or in
+    * the history of the replacement policy
+    * (see {@link BasicBufferMgr#readAhead(Block, BufferRing)}),
+    * so that read-ahead does not defeat a scan-resistant policy.
+    * Blocks of temporary tables are not read ahead, because
+    * the table can be deleted while the request is queued.
+    * @param blk a reference to a disk block
+    * @param ring the scan's buffer ring, or null
+    */
+   public void readAhead(final Block blk, final BufferRing ring) {
+      ThreadPoolExecutor pool = readAheadPool;
+      if (pool == null || FileMgr.isTempFile(blk.fileName()))
+         return;
+      pool.execute(new Runnable() {
+         public void run() {
+            if (ring != null && blk.number() <= ring.position())
+               return;
+            try {
+               stripeFor(blk).readAhead(blk, ring);
+            }
+            catch (RuntimeException e) {
+               // an I/O error; the scan will encounter it when it pins the block
+            }
+         }
+      });
+   }
+   
+   /**
+    * Writes the list of blocks currently in the pool
+    * to the specified file, sorted by file and block number.
+    * Blocks of temporary tables are omitted, because those
+    * files are deleted at startup.
+    * The list is written to a new file, which then
+    * replaces the old one.
+    * @param f the file that holds the list
+    */
+   public void saveResidentBlocks(File f) {
+      SortedSet<Block> blks = new TreeSet<Block>();
+      for (BasicBufferMgr stripe : stripes)
+         stripe.collectResident(blks);
+      File tmp = new File(f.getPath() + ".new");
+      try {
+         DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(tmp)));
+         try {
+            for (Block blk : blks)
+               if (!FileMgr.isTempFile(blk.fileName())) {
+               out.writeUTF(blk.fileName());
+               out.writeInt(blk.number());
+            }
+         }
+         finally {
+            out.close();
+         }
+         f.delete();
+         if (!tmp.renameTo(f))
+            throw new IOException();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + f);
+      }
+   }
+   
+   /**
+    * Reads a list of blocks written by
+    * {@link #saveResidentBlocks(File) saveResidentBlocks}.
+    * A missing file results in an empty list, and a file
+    * that was cut short results in the blocks that could be read.
+    * @param f the file that holds the list
+    * @return the blocks, sorted by file and block number
+    */
+   public List<Block> readResidentBlocks(File f) {
+      List<Block> blks = new ArrayList<Block>();
+      if (!f.exists())
+         return blks;
+      try {
+         DataInputStream in = new DataInputStream(
+               new BufferedInputStream(new FileInputStream(f)));
+         try {
+            while (true) {
+               String filename = in.readUTF();
+               blks.add(new Block(filename, in.readInt()));
+            }
+         }
+         finally {
+            in.close();
+         }
+      }
+      catch (IOException e) {
+         // end of the list
+      }
+      return blks;
+   }
+   
+   /**
+    * Starts a background thread that reads the specified
+    * blocks into the pool, in the order of the list.
+    * Blocks beyond the end of their file are skipped,
+    * as are blocks whose file no longer exists.
+    * The thread stops early if the pool runs out of
+    * unused buffers.
+    * @param blks the blocks to read
+    */
+   public void prefetch(List<Block> blks) {
+      FileMgr fm = SimpleDB.fileMgr();
+      List<Block> existing = new ArrayList<Block>(blks.size());
+      for (Block blk : blks)
+         if (fm.exists(blk.fileName()) && blk.number() < fm.size(blk.fileName()))
+         existing.add(blk);
+      if (!existing.isEmpty())
+         new BufferPrefetcher(this, existing).start();
    }
    
    /**
@@ -115,10 +595,155 @@ public class BufferMgr {
     * @return the number of available buffers
     */
    public int available() {
-      return bufferMgr.available();
+      int n = 0;
+      for (BasicBufferMgr stripe : stripes)
+         n += stripe.available();
+      return n;
+   }
+   
+   /**
+    * Returns the number of available buffers in the stripe
+    * that has the fewest.
+    * The blocks that a scan pins fall in stripes determined
+    * by their hash codes, so this is the number of blocks
+    * that a scan can be sure to pin at once without
+    * waiting for a buffer.
+    * @return the number of available buffers in the fullest stripe
+    */
+   public int stripeAvailable() {
+      int n = Integer.MAX_VALUE;
+      for (BasicBufferMgr stripe : stripes)
+         n = Math.min(n, stripe.available());
+      return n;
+   }
+   
+   /**
+    * Creates a buffer ring for a sequential scan
+    * or a temporary-table writer.
+    * The ring holds 1/8 of a stripe, but at least 2
+    * and at most 32 buffers per stripe.
+    * @return a new buffer ring
+    */
+   public BufferRing newRing() {
+      int size = Math.min(MAX_RING_SIZE, numbuffers / stripes.length / 8);
+      return new BufferRing(Math.max(2, size));
+   }
+   
+   /**
+    * Creates a buffer ring for a sequential scan of a file
+    * having the specified number of blocks.
+    * A file that fits into a quarter of the pool
+    * does not need a ring, and so the method returns null.
+    * @param numblocks the size of the file, in blocks
+    * @return a new buffer ring, or null
+    */
+   public BufferRing newRing(int numblocks) {
+      if (numblocks <= numbuffers / 4)
+         return null;
+      return newRing();
+   }
+   
+   /**
+    * Returns the fraction of calls to pin that found their
+    * block already in the pool, under the current replacement policy.
+    * @return the buffer hit ratio, or 0 if nothing has been pinned
+    */
+   public double hitRatio() {
+      long hits = hits();
+      long total = hits + misses();
+      return (total == 0) ? 0 : (double) hits / total;
+   }
+   
+   /**
+    * Returns the number of calls to pin that found their
+    * block already in the pool.
+    * @return the number of buffer hits
+    */
+   public long hits() {
+      long n = 0;
+      for (BasicBufferMgr stripe : stripes)
+         n += stripe.hits();
+      return n;
+   }
+   
+   /**
+    * Returns the number of calls to pin that had to
+    * read their block from disk.
+    * @return the number of buffer misses
+    */
+   public long misses() {
+      long n = 0;
+      for (BasicBufferMgr stripe : stripes)
+         n += stripe.misses();
+      return n;
+   }
+   
+   /**
+    * Returns the buffer statistics of each file whose
+    * blocks have been pinned, sorted by file name.
+    * The temporary tables are combined into one entry
+    * (see {@link BufferStats#TEMP_FILES}).
+    * @return the statistics of each file
+    */
+   public List<BufferStats> fileStats() {
+      Map<String,BufferStats> totals = new TreeMap<String,BufferStats>();
+      for (BasicBufferMgr stripe : stripes)
+         stripe.collectStats(totals);
+      return new ArrayList<BufferStats>(totals.values());
+   }
+   
+   /**
+    * Returns a histogram of the latencies of the calls
+    * to pin and pinNew, including any time spent waiting
+    * for a buffer and reading the block.
+    * @return a copy of the pin latency histogram
+    */
+   public LatencyHistogram pinLatency() {
+      LatencyHistogram h = new LatencyHistogram();
+      for (BasicBufferMgr stripe : stripes)
+         h.add(stripe.pinLatency());
+      return h;
+   }
+   
+   /**
+    * Makes the statistics of this buffer manager
+    * available through JMX, under the name "simpledb:type=BufferMgr".
+    * @see BufferMgrMXBean
+    */
+   public void registerMBean() {
+      BufferMgrMonitor.register(this);
+   }
+   
+   /**
+    * Returns the name of the replacement policy in use.
+    * @return the policy name
+    */
+   public String policyName() {
+      return stripes[0].policyName();
+   }
+   
+   /**
+    * Returns the number of stripes in the pool.
+    * @return the number of stripes
+    */
+   public int numStripes() {
+      return stripes.length;
+   }
+   
+   BasicBufferMgr[] stripes() {
+      return stripes;
+   }
+   
+   BasicBufferMgr stripeFor(Block blk) {
+      return stripes[(blk.hashCode() & Integer.MAX_VALUE) % stripes.length];
    }
    
    private boolean waitingTooLong(long starttime) {
       return System.currentTimeMillis() - starttime > MAX_TIME;
    }
+   
+   private static int defaultStripes(int numbuffers) {
+      int maxstripes = 2 * Runtime.getRuntime().availableProcessors();
+      return Math.max(1, Math.min(maxstripes, numbuffers / MIN_STRIPE_SIZE));
+   }
 }
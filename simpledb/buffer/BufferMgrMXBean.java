@@ -0,0 +1,44 @@
+package simpledb.buffer;
+
+import java.util.List;
+
+/**
+ * The management interface of the buffer manager,
+ * which exposes its statistics through JMX.
+ * The buffer manager is registered under the name
+ * "simpledb:type=BufferMgr".
+ */
+public interface BufferMgrMXBean {
+   public int getSize();
+   
+   public int getAvailable();
+   
+   public int getStripes();
+   
+   public String getPolicyName();
+   
+   public long getHits();
+   
+   public long getMisses();
+   
+   public double getHitRatio();
+   
+   public long getEvictions();
+   
+   public long getDirtyEvictions();
+   
+   public long getPinWaitMillis();
+   
+   public long getAborts();
+   
+   /**
+    * Returns the pin latency histogram;
+    * see {@link LatencyHistogram} for the bucket bounds.
+    * @return the count of each bucket
+    */
+   public long[] getPinLatencyHistogram();
+   
+   public long getPinLatency99thPercentileMicros();
+   
+   public List<BufferStats> getFileStats();
+}
@@ -0,0 +1,100 @@
+package simpledb.buffer;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import javax.management.*;
+
+/**
+ * The JMX view of a buffer manager.
+ * The totals are computed from the per-file statistics.
+ */
+class BufferMgrMonitor implements BufferMgrMXBean {
+   static final String MBEAN_NAME = "simpledb:type=BufferMgr";
+   private BufferMgr bufferMgr;
+   
+   BufferMgrMonitor(BufferMgr bufferMgr) {
+      this.bufferMgr = bufferMgr;
+   }
+   
+   /**
+    * Registers a monitor for the specified buffer manager
+    * with the platform MBean server, replacing the monitor
+    * of any previous buffer manager.
+    * @param bufferMgr the buffer manager
+    */
+   static void register(BufferMgr bufferMgr) {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(MBEAN_NAME);
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+         server.registerMBean(new BufferMgrMonitor(bufferMgr), name);
+      }
+      catch (JMException e) {
+         throw new RuntimeException("cannot register " + MBEAN_NAME);
+      }
+   }
+   
+   public int getSize() {
+      return bufferMgr.size();
+   }
+   
+   public int getAvailable() {
+      return bufferMgr.available();
+   }
+   
+   public int getStripes() {
+      return bufferMgr.numStripes();
+   }
+   
+   public String getPolicyName() {
+      return bufferMgr.policyName();
+   }
+   
+   public long getHits() {
+      return bufferMgr.hits();
+   }
+   
+   public long getMisses() {
+      return bufferMgr.misses();
+   }
+   
+   public double getHitRatio() {
+      return bufferMgr.hitRatio();
+   }
+   
+   public long getEvictions() {
+      return totals().getEvictions();
+   }
+   
+   public long getDirtyEvictions() {
+      return totals().getDirtyEvictions();
+   }
+   
+   public long getPinWaitMillis() {
+      return totals().getPinWaitMillis();
+   }
+   
+   public long getAborts() {
+      return totals().getAborts();
+   }
+   
+   public long[] getPinLatencyHistogram() {
+      return bufferMgr.pinLatency().counts();
+   }
+   
+   public long getPinLatency99thPercentileMicros() {
+      return bufferMgr.pinLatency().percentile(99);
+   }
+   
+   public List<BufferStats> getFileStats() {
+      return bufferMgr.fileStats();
+   }
+   
+   private BufferStats totals() {
+      BufferStats total = new BufferStats("");
+      for (BufferStats s : bufferMgr.fileStats())
+         total.add(s);
+      return total;
+   }
+}
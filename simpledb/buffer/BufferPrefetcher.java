@@ -0,0 +1,50 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * A daemon thread that reads a list of blocks into the buffer pool.
+ * It is used at startup to reload the blocks that were
+ * resident when the pool was last saved,
+ * so that the pool does not start cold.
+ * Each block is pinned and immediately unpinned.
+ * The prefetcher stops when the pool has no unused buffers left,
+ * so it never replaces a buffer that a transaction has used.
+ * If a block cannot be read, the prefetcher reports the error
+ * on the standard error stream and stops; a transaction that
+ * pins the block gets the error through the usual path.
+ */
+class BufferPrefetcher extends Thread {
+   private BufferMgr bufferMgr;
+   private List<Block> blocks;
+   
+   /**
+    * Creates a prefetcher for the specified blocks.
+    * The blocks are read in the order of the list.
+    * @param bufferMgr the buffer manager
+    * @param blocks the blocks to read
+    */
+   BufferPrefetcher(BufferMgr bufferMgr, List<Block> blocks) {
+      super("simpledb-buffer-prefetcher");
+      this.bufferMgr = bufferMgr;
+      this.blocks = blocks;
+      setDaemon(true);
+   }
+   
+   public void run() {
+      try {
+         for (Block blk : blocks) {
+            if (!bufferMgr.stripeFor(blk).hasUnused())
+               continue;
+            Buffer buff = bufferMgr.pin(blk);
+            bufferMgr.unpin(buff);
+         }
+      }
+      catch (RuntimeException e) {
+         // a buffer abort or an I/O error; the rest of the pool stays cold
+         System.err.println("buffer prefetcher: stopped: " + e);
+         e.printStackTrace();
+      }
+   }
+}
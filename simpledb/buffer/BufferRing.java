@@ -0,0 +1,110 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.Arrays;
+
+/**
+ * A small ring of buffers used by a sequential scan
+ * (or by the writer of a temporary table).
+ * When a block pinned through the ring is not in the pool,
+ * the buffer manager first tries to reuse the buffer that the
+ * ring read (or appended) a full revolution earlier.
+ * A large scan therefore cycles through the same few buffers,
+ * instead of replacing the blocks that other transactions
+ * (and the catalog) depend on.
+ * Blocks that are already in the pool are pinned as usual.
+ * <p>
+ * A buffer can only be reused for a block that belongs to
+ * the same stripe of the pool, so the ring keeps a separate
+ * set of slots for each stripe.
+ * A ring is used by a single scan, and the slots of a stripe
+ * are accessed only while that stripe holds its lock.
+ */
+public class BufferRing {
+   private int size;
+   private Buffer[][] buffs = new Buffer[1][];
+   private Block[][]  blks  = new Block[1][];
+   private int[] current = new int[1];
+   private volatile int position = -1;
+   
+   /**
+    * Creates a ring having the specified number of buffers
+    * in each stripe.
+    * The ring must be larger than the number of blocks the
+    * scan keeps pinned at once; otherwise no buffer will
+    * be unpinned when the ring comes back to it.
+    * @param size the number of buffers in the ring
+    */
+   public BufferRing(int size) {
+      this.size = size;
+   }
+   
+   /**
+    * Returns the number of buffers in the ring, per stripe.
+    * @return the size of the ring
+    */
+   public int size() {
+      return size;
+   }
+   
+   /**
+    * Records the number of the block that the scan is at.
+    * Read-ahead requests for blocks that the scan has
+    * already reached are then dropped, instead of
+    * replacing blocks in the ring that the scan still needs.
+    * @param blknum the scan's current block number
+    */
+   public void setPosition(int blknum) {
+      position = blknum;
+   }
+   
+   /**
+    * Returns the number of the block that the scan is at,
+    * or -1 if the scan has not recorded its position.
+    * @return the scan's current block number
+    */
+   int position() {
+      return position;
+   }
+   
+   /**
+    * Returns the buffer in the current slot of the specified
+    * stripe, if it can be reused.
+    * The buffer can be reused if it is unpinned and still
+    * holds the block that the ring assigned to it.
+    * @param stripe the id of the stripe
+    * @return the reusable buffer, or null
+    */
+   synchronized Buffer reusableBuffer(int stripe) {
+      if (stripe >= buffs.length || buffs[stripe] == null)
+         return null;
+      int slot = current[stripe];
+      Buffer buff = buffs[stripe][slot];
+      if (buff == null || buff.isPinned() || !blks[stripe][slot].equals(buff.block()))
+         return null;
+      return buff;
+   }
+   
+   /**
+    * Records the specified buffer in the current slot of
+    * the specified stripe, and advances to the next slot.
+    * @param stripe the id of the stripe
+    * @param buff a buffer that was just assigned a block
+    */
+   synchronized void add(int stripe, Buffer buff) {
+      if (stripe >= buffs.length) {
+         int n = stripe + 1;
+         buffs   = Arrays.copyOf(buffs, n);
+         blks    = Arrays.copyOf(blks, n);
+         current = Arrays.copyOf(current, n);
+      }
+      if (buffs[stripe] == null) {
+         buffs[stripe] = new Buffer[size];
+         blks[stripe]  = new Block[size];
+      }
+      int slot = current[stripe];
+      buffs[stripe][slot] = buff;
+      blks[stripe][slot] = buff.block();
+      current[stripe] = (slot + 1) % size;
+   }
+}
@@ -0,0 +1,105 @@
+package simpledb.buffer;
+
+/**
+ * The buffer statistics of one file.
+ * Each stripe of the buffer pool keeps the statistics of
+ * the files whose blocks it holds, and updates them while
+ * holding its own lock; the buffer manager adds up the
+ * statistics of all stripes when they are requested.
+ * The statistics of all temporary tables are kept together,
+ * under the name {@link #TEMP_FILES}.
+ * The getter methods follow the JavaBeans naming convention,
+ * so that the statistics can be exposed through JMX.
+ */
+public class BufferStats {
+   /**
+    * The name under which the statistics of
+    * the temporary tables are kept.
+    */
+   public static final String TEMP_FILES = "temp*";
+   
+   private String filename;
+   long hits = 0, misses = 0, evictions = 0, dirtyEvictions = 0;
+   long waitTime = 0, aborts = 0;
+   
+   /**
+    * Creates empty statistics for the specified file.
+    * @param filename the name of the file
+    */
+   BufferStats(String filename) {
+      this.filename = filename;
+   }
+   
+   /**
+    * Adds the counts of the specified statistics to these.
+    * @param s the statistics of the same file, from another stripe
+    */
+   void add(BufferStats s) {
+      hits += s.hits;
+      misses += s.misses;
+      evictions += s.evictions;
+      dirtyEvictions += s.dirtyEvictions;
+      waitTime += s.waitTime;
+      aborts += s.aborts;
+   }
+   
+   /**
+    * Returns the name of the file.
+    * @return the file name
+    */
+   public String getFileName() {
+      return filename;
+   }
+   
+   /**
+    * Returns the number of pins that found their block in the pool.
+    * @return the number of hits
+    */
+   public long getHits() {
+      return hits;
+   }
+   
+   /**
+    * Returns the number of pins that read their block from disk.
+    * @return the number of misses
+    */
+   public long getMisses() {
+      return misses;
+   }
+   
+   /**
+    * Returns the number of times that a block of the file
+    * was replaced in its buffer by another block.
+    * @return the number of evictions
+    */
+   public long getEvictions() {
+      return evictions;
+   }
+   
+   /**
+    * Returns the number of evictions that had to write
+    * the block to disk first.
+    * @return the number of dirty evictions
+    */
+   public long getDirtyEvictions() {
+      return dirtyEvictions;
+   }
+   
+   /**
+    * Returns the total time that pins of the file's blocks
+    * spent waiting for a buffer to become available.
+    * @return the waiting time, in milliseconds
+    */
+   public long getPinWaitMillis() {
+      return waitTime / 1000000;
+   }
+   
+   /**
+    * Returns the number of pins of the file's blocks that
+    * gave up waiting, and threw a {@link BufferAbortException}.
+    * @return the number of aborted pins
+    */
+   public long getAborts() {
+      return aborts;
+   }
+}
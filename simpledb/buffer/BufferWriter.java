@@ -0,0 +1,121 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The background writer.
+ * A daemon thread that periodically writes the dirty,
+ * unpinned buffers of the pool to disk, in block order.
+ * When a pin needs to replace a buffer, the buffer is then
+ * usually clean, and the pinning thread does not have to
+ * write it first.
+ * Each buffer is written by {@link Buffer#flush()}, which forces
+ * the log up to the buffer's LSN before writing the page,
+ * so the write-ahead rule is preserved.
+ * A buffer whose write fails stays dirty, so the error is reported
+ * on the standard error stream, and the next thread that writes
+ * the buffer (such as a pin that replaces it) gets the error
+ * through the same path as any other failed write.
+ */
+class BufferWriter extends Thread {
+   private BufferMgr bufferMgr;
+   private long delay;
+   private int maxpages;
+   private volatile boolean stopped = false;
+   
+   /**
+    * Creates a background writer for the specified buffer manager.
+    * @param bufferMgr the buffer manager
+    * @param delay the time between rounds, in milliseconds
+    * @param maxpages the maximum number of pages written in one round
+    */
+   BufferWriter(BufferMgr bufferMgr, long delay, int maxpages) {
+      super("simpledb-buffer-writer");
+      this.bufferMgr = bufferMgr;
+      this.delay = delay;
+      this.maxpages = maxpages;
+      setDaemon(true);
+   }
+   
+   public void run() {
+      while (!stopped) {
+         try {
+            Thread.sleep(delay);
+            writeDirtyBuffers();
+         }
+         catch (InterruptedException e) {
+            return;
+         }
+         catch (RuntimeException e) {
+            // an I/O error; the buffer stays dirty, and is tried again
+            System.err.println("buffer writer: cannot write a dirty buffer: " + e);
+            e.printStackTrace();
+         }
+      }
+   }
+   
+   /**
+    * Stops the writer after its current round.
+    */
+   void shutdown() {
+      stopped = true;
+      interrupt();
+   }
+   
+   /**
+    * Writes up to maxpages dirty, unpinned buffers.
+    */
+   void writeDirtyBuffers() {
+      writeDirtyBuffers(bufferMgr, maxpages, Long.MAX_VALUE);
+   }
+   
+   /**
+    * Writes up to maxpages dirty, unpinned buffers
+    * of the specified buffer manager whose recovery LSN
+    * precedes the specified LSN, sorted by file and block number.
+    * The buffers are collected one stripe at a time, and each
+    * is written while holding only the lock of its own stripe.
+    * @param bufferMgr the buffer manager
+    * @param maxpages the maximum number of pages to write
+    * @param beforeLSN the LSN that the recovery LSNs must precede
+    */
+   static void writeDirtyBuffers(BufferMgr bufferMgr, int maxpages, long beforeLSN) {
+      List<Buffer> buffs = new ArrayList<Buffer>();
+      for (BasicBufferMgr stripe : bufferMgr.stripes())
+         stripe.collectDirty(buffs, beforeLSN);
+      List<DirtyBuffer> dirty = new ArrayList<DirtyBuffer>(buffs.size());
+      for (Buffer buff : buffs) {
+         Block blk = buff.block();
+         if (blk != null)
+            dirty.add(new DirtyBuffer(buff, blk));
+      }
+      Collections.sort(dirty);
+      int n = Math.min(maxpages, dirty.size());
+      for (int i=0; i<n; i++) {
+         DirtyBuffer d = dirty.get(i);
+         bufferMgr.stripeFor(d.blk).flushIfUnpinned(d.buff);
+      }
+   }
+   
+   /**
+    * A dirty buffer, together with the block it held
+    * when it was collected.
+    * Buffers never move between stripes, so the block
+    * identifies the buffer's stripe even if the buffer
+    * has since been reassigned.
+    */
+   private static class DirtyBuffer implements Comparable<DirtyBuffer> {
+      private Buffer buff;
+      private Block blk;
+      
+      DirtyBuffer(Buffer buff, Block blk) {
+         this.buff = buff;
+         this.blk = blk;
+      }
+      
+      public int compareTo(DirtyBuffer d) {
+         return blk.compareTo(d.blk);
+      }
+   }
+}
@@ -0,0 +1,89 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The clock (second-chance) replacement policy.
+ * Resident buffers form a circular list.
+ * Each pin sets the buffer's reference bit;
+ * the clock hand clears reference bits as it sweeps,
+ * and chooses the first unpinned buffer whose bit is clear.
+ * A chosen buffer is removed like any other,
+ * until it is pinned to its new block.
+ */
+class ClockPolicy implements ReplacementPolicy {
+   private List<Buffer> ring = new ArrayList<Buffer>();
+   private Set<Buffer> members = new HashSet<Buffer>();
+   private Set<Buffer> referenced = new HashSet<Buffer>();
+   private Set<Buffer> inRing = new HashSet<Buffer>();
+   private int hand = 0;
+   
+   public void pinned(Buffer buff) {
+      members.add(buff);
+      if (inRing.add(buff))
+         ring.add(buff);
+      referenced.add(buff);
+   }
+   
+   public void unpinned(Buffer buff) {}
+   
+   /**
+    * The buffer joins the ring with its reference bit clear.
+    */
+   public void loaded(Buffer buff) {
+      members.add(buff);
+      if (inRing.add(buff))
+         ring.add(buff);
+   }
+   
+   /**
+    * Sweeps the clock hand at most twice around the ring.
+    * After one full sweep every reference bit of an unpinned
+    * buffer has been cleared, so a second sweep that finds
+    * nothing means that every buffer is pinned.
+    */
+   public Buffer chooseUnpinnedBuffer(Block blk) {
+      int n = ring.size();
+      for (int i=0; i<2*n; i++) {
+         Buffer buff = ring.get(hand);
+         hand = (hand + 1) % n;
+         if (buff.isPinned() || !members.contains(buff))
+            continue;
+         if (referenced.remove(buff))
+            continue;
+         remove(buff);
+         return buff;
+      }
+      return null;
+   }
+   
+   /**
+    * The buffer is marked as removed, but keeps its place in
+    * the ring, since a reused buffer will soon be pinned again.
+    * Removed buffers are dropped from the ring once they
+    * make up half of it.
+    */
+   public void remove(Buffer buff) {
+      members.remove(buff);
+      referenced.remove(buff);
+      if (ring.size() > 2 * members.size() + 16)
+         compact();
+   }
+   
+   public void resize(int numbuffs) {}
+   
+   public String name() {
+      return "clock";
+   }
+   
+   private void compact() {
+      List<Buffer> newring = new ArrayList<Buffer>(members.size());
+      for (Buffer buff : ring)
+         if (members.contains(buff))
+         newring.add(buff);
+      ring = newring;
+      inRing = new HashSet<Buffer>(members);
+      hand = 0;
+   }
+}
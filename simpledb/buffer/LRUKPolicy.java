@@ -0,0 +1,135 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The LRU-K replacement policy.
+ * The policy remembers the times of the last K pins of each block,
+ * and replaces the unpinned buffer whose K-th most recent pin
+ * is the oldest.
+ * Blocks pinned fewer than K times are replaced first,
+ * in LRU order.
+ * The history of a block is retained for a while after the block
+ * leaves the pool, so that a block which is re-read soon after
+ * being replaced is not treated as new.
+ */
+class LRUKPolicy implements ReplacementPolicy {
+   private int k;
+   private long clock = 0;
+   private long nextSeq = 0;
+   private int retained;
+   private Map<Block,long[]> history;
+   private Map<Buffer,Candidate> candidateMap = new HashMap<Buffer,Candidate>();
+   private TreeSet<Candidate> candidates = new TreeSet<Candidate>();
+   
+   /**
+    * Creates an LRU-K policy for a pool of the specified size.
+    * @param k the number of pins remembered for each block
+    * @param numbuffs the number of buffers in the pool
+    */
+   LRUKPolicy(int k, int numbuffs) {
+      this.k = k;
+      resize(numbuffs);
+      history = new LinkedHashMap<Block,long[]>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<Block,long[]> e) {
+            return size() > retained;
+         }
+      };
+   }
+   
+   public void pinned(Buffer buff) {
+      Candidate c = candidateMap.remove(buff);
+      if (c != null)
+         candidates.remove(c);
+      Block blk = buff.block();
+      long[] times = history.get(blk);
+      if (times == null) {
+         times = new long[k];
+         history.put(blk, times);
+      }
+      System.arraycopy(times, 0, times, 1, k-1);
+      times[0] = ++clock;
+   }
+   
+   public void unpinned(Buffer buff) {
+      remove(buff);
+      long[] times = history.get(buff.block());
+      Candidate c = (times == null) ? new Candidate(buff, 0, 0, nextSeq++)
+                                    : new Candidate(buff, times[k-1], times[0], nextSeq++);
+      candidateMap.put(buff, c);
+      candidates.add(c);
+   }
+   
+   /**
+    * Nothing is recorded in the block's history; the buffer
+    * becomes a candidate when the read-ahead unpins it.
+    */
+   public void loaded(Buffer buff) {}
+   
+   /**
+    * A buffer that is pinned for a batch write stays
+    * a candidate, and is skipped.
+    */
+   public Buffer chooseUnpinnedBuffer(Block blk) {
+      Iterator<Candidate> iter = candidates.iterator();
+      while (iter.hasNext()) {
+         Candidate c = iter.next();
+         if (!c.buff.isPinned()) {
+            iter.remove();
+            candidateMap.remove(c.buff);
+            return c.buff;
+         }
+      }
+      return null;
+   }
+   
+   public void remove(Buffer buff) {
+      Candidate c = candidateMap.remove(buff);
+      if (c != null)
+         candidates.remove(c);
+   }
+   
+   /**
+    * The history of four times as many blocks
+    * as the pool holds is retained.
+    */
+   public void resize(int numbuffs) {
+      retained = 4 * numbuffs;
+   }
+   
+   public String name() {
+      return "lru" + k;
+   }
+   
+   /**
+    * An unpinned buffer, ordered by its K-th most recent pin
+    * (0 meaning that there have been fewer than K pins),
+    * then by its most recent pin,
+    * then by the order in which the candidates were created.
+    * The times are copied when the buffer is unpinned,
+    * so the ordering does not change while it is a candidate.
+    * The sequence number comes from the policy, which is only
+    * called under the lock of its pool, so that no two
+    * candidates of the policy compare as equal.
+    */
+   private static class Candidate implements Comparable<Candidate> {
+      private Buffer buff;
+      private long kth, last, seq;
+      
+      Candidate(Buffer buff, long kth, long last, long seq) {
+         this.buff = buff;
+         this.kth = kth;
+         this.last = last;
+         this.seq = seq;
+      }
+      
+      public int compareTo(Candidate c) {
+         if (kth != c.kth)
+            return kth < c.kth ? -1 : 1;
+         if (last != c.last)
+            return last < c.last ? -1 : 1;
+         return seq < c.seq ? -1 : (seq == c.seq ? 0 : 1);
+      }
+   }
+}
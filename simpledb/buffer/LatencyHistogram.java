@@ -0,0 +1,79 @@
+package simpledb.buffer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, having buckets whose bounds
+ * are powers of 2 microseconds.
+ * Bucket 0 counts the latencies below 1 microsecond,
+ * and bucket i &gt; 0 counts those of at least 2<sup>i-1</sup>
+ * and below 2<sup>i</sup> microseconds;
+ * the last bucket also counts everything longer.
+ * Latencies are recorded without locking.
+ */
+public class LatencyHistogram {
+   public static final int NUM_BUCKETS = 32;
+   private AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+   
+   /**
+    * Records the specified latency.
+    * @param nanos the latency, in nanoseconds
+    */
+   void record(long nanos) {
+      long micros = nanos / 1000;
+      int bucket = 64 - Long.numberOfLeadingZeros(micros);
+      counts.incrementAndGet(Math.min(bucket, NUM_BUCKETS-1));
+   }
+   
+   /**
+    * Adds the counts of the specified histogram to this one.
+    * @param h another histogram
+    */
+   void add(LatencyHistogram h) {
+      for (int i=0; i<NUM_BUCKETS; i++)
+         counts.addAndGet(i, h.counts.get(i));
+   }
+   
+   /**
+    * Returns the counts of the buckets.
+    * @return an array holding the count of each bucket
+    */
+   public long[] counts() {
+      long[] result = new long[NUM_BUCKETS];
+      for (int i=0; i<NUM_BUCKETS; i++)
+         result[i] = counts.get(i);
+      return result;
+   }
+   
+   /**
+    * Returns the upper bound of the latencies in the specified bucket.
+    * @param bucket the bucket number
+    * @return the upper bound, in microseconds
+    */
+   public static long upperBound(int bucket) {
+      return 1L << bucket;
+   }
+   
+   /**
+    * Returns an upper bound of the specified percentile
+    * of the recorded latencies, namely the upper bound of the
+    * bucket that contains that percentile.
+    * @param pct the percentile, between 0 and 100
+    * @return the percentile's upper bound in microseconds,
+    * or 0 if nothing was recorded
+    */
+   public long percentile(double pct) {
+      long[] c = counts();
+      long total = 0;
+      for (long n : c)
+         total += n;
+      long target = (long) Math.ceil(total * pct / 100);
+      long seen = 0;
+      for (int i=0; i<NUM_BUCKETS; i++) {
+         seen += c[i];
+         if (seen >= target && seen > 0)
+            return upperBound(i);
+      }
+      return 0;
+   }
+}
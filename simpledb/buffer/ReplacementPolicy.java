@@ -0,0 +1,81 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+
+/**
+ * The interface implemented by each buffer replacement policy.
+ * A policy is told about every pin and unpin of a resident buffer,
+ * and is asked to choose a victim when the buffer manager
+ * needs a buffer for a block that is not in the pool.
+ * The policy is always called while the buffer manager
+ * holds its lock, and so needs no synchronization of its own.
+ */
+interface ReplacementPolicy {
+   /**
+    * Called each time a buffer is pinned,
+    * except for the pins of a batch write, which
+    * hold a buffer without referencing its block;
+    * a policy must therefore not replace a pinned buffer
+    * even if it has not been told about the pin.
+    * The buffer has already been assigned to its block,
+    * so a buffer the policy does not yet know about
+    * holds a block that was just read (or appended).
+    * @param buff the pinned buffer
+    */
+   void pinned(Buffer buff);
+   
+   /**
+    * Called when a buffer's pin count drops to 0,
+    * including after the pins of a batch write.
+    * @param buff the buffer, which is now unpinned
+    */
+   void unpinned(Buffer buff);
+   
+   /**
+    * Called when a block is read into a buffer ahead of its
+    * first pin, by read-ahead.
+    * The buffer becomes a candidate for replacement once it is
+    * unpinned, but the read is not a reference to its block.
+    * Before the buffer's first real pin, the buffer manager
+    * calls {@link #remove(Buffer)}, so that the pin is seen
+    * as the pin of a block that was just read.
+    * @param buff the buffer, which is pinned by the read-ahead
+    */
+   void loaded(Buffer buff);
+   
+   /**
+    * Chooses an unpinned buffer to be replaced, and removes it
+    * from the policy's bookkeeping.
+    * Returns null if the policy cannot find an unpinned buffer.
+    * @param blk the block that will be assigned to the buffer,
+    * or null if the buffer will hold a newly-appended block
+    * @return the buffer to be replaced, or null
+    */
+   Buffer chooseUnpinnedBuffer(Block blk);
+   
+   /**
+    * Forgets the access history of the specified unpinned buffer.
+    * Called when the buffer manager reuses the buffer of a
+    * {@link BufferRing} without asking the policy for a victim,
+    * and when it removes a buffer from the pool.
+    * A reused buffer will be passed to {@link #pinned(Buffer)}
+    * again once it holds its new block.
+    * @param buff the buffer being reused
+    */
+   void remove(Buffer buff);
+   
+   /**
+    * Called when the number of buffers in the pool changes,
+    * so that a policy whose bookkeeping is sized according
+    * to the pool can adjust.
+    * @param numbuffs the new number of buffers
+    */
+   void resize(int numbuffs);
+   
+   /**
+    * Returns the name of the policy, as used in
+    * {@link simpledb.server.SimpleDB#BUFFER_POLICY}.
+    * @return the policy name
+    */
+   String name();
+}
@@ -0,0 +1,103 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The 2Q replacement policy.
+ * A block read into the pool goes on the FIFO queue A1in.
+ * When it is replaced from A1in, its identity is remembered
+ * on the ghost queue A1out.
+ * A block that is read again while on A1out is considered hot,
+ * and goes on the LRU queue Am.
+ * Blocks that are pinned only once, such as those of a
+ * sequential scan, therefore never displace the blocks in Am.
+ */
+class TwoQPolicy implements ReplacementPolicy {
+   private int kin, kout;
+   private LinkedHashSet<Buffer> a1in = new LinkedHashSet<Buffer>();
+   private LinkedHashSet<Buffer> am   = new LinkedHashSet<Buffer>();
+   private LinkedHashSet<Block>  a1out = new LinkedHashSet<Block>();
+   
+   /**
+    * Creates a 2Q policy for a pool of the specified size.
+    * As recommended by Johnson and Shasha, A1in holds
+    * a quarter of the pool and A1out remembers
+    * half as many blocks as the pool holds.
+    * @param numbuffs the number of buffers in the pool
+    */
+   TwoQPolicy(int numbuffs) {
+      resize(numbuffs);
+   }
+   
+   public void pinned(Buffer buff) {
+      if (am.remove(buff))
+         am.add(buff);
+      else if (!a1in.contains(buff)) {
+         if (a1out.remove(buff.block()))
+            am.add(buff);
+         else
+            a1in.add(buff);
+      }
+   }
+   
+   public void unpinned(Buffer buff) {}
+   
+   /**
+    * The buffer goes on A1in, without consulting A1out,
+    * which is left for the block's first real pin.
+    */
+   public void loaded(Buffer buff) {
+      a1in.add(buff);
+   }
+   
+   public Buffer chooseUnpinnedBuffer(Block blk) {
+      Buffer buff = null;
+      if (a1in.size() > kin)
+         buff = removeFromA1in();
+      if (buff == null)
+         buff = removeFirstUnpinned(am);
+      if (buff == null)
+         buff = removeFromA1in();
+      return buff;
+   }
+   
+   public void remove(Buffer buff) {
+      if (!a1in.remove(buff))
+         am.remove(buff);
+   }
+   
+   public void resize(int numbuffs) {
+      kin  = Math.max(1, numbuffs / 4);
+      kout = Math.max(1, numbuffs / 2);
+   }
+   
+   public String name() {
+      return "2q";
+   }
+   
+   private Buffer removeFromA1in() {
+      Buffer buff = removeFirstUnpinned(a1in);
+      if (buff != null) {
+         a1out.add(buff.block());
+         if (a1out.size() > kout) {
+            Iterator<Block> iter = a1out.iterator();
+            iter.next();
+            iter.remove();
+         }
+      }
+      return buff;
+   }
+   
+   static Buffer removeFirstUnpinned(Collection<Buffer> queue) {
+      Iterator<Buffer> iter = queue.iterator();
+      while (iter.hasNext()) {
+         Buffer buff = iter.next();
+         if (!buff.isPinned()) {
+            iter.remove();
+            return buff;
+         }
+      }
+      return null;
+   }
+}
@@ -7,7 +7,7 @@ package simpledb.file;
  * instead, that is the job of a {@link Page} object.
  * @author Edward Sciore
  */
-public class Block {
+public class Block implements Comparable<Block> {
    private String filename;
    private int blknum;
    
@@ -38,6 +38,20 @@ public class Block {
       return blknum;
    }
    
+   /**
+    * Orders blocks by filename, and then by block number,
+    * which is the order in which they can be written
+    * most efficiently.
+    * @param blk the other block
+    * @return a negative, zero, or positive value, as usual
+    */
+   public int compareTo(Block blk) {
+      int result = filename.compareTo(blk.filename);
+      if (result != 0)
+         return result;
+      return blknum < blk.blknum ? -1 : (blknum == blk.blknum ? 0 : 1);
+   }
+   
    public boolean equals(Object obj) {
       Block blk = (Block) obj;
       return filename.equals(blk.filename) && blknum == blk.blknum;
@@ -48,6 +62,6 @@ public class Block {
    }
    
    public int hashCode() {
-      return toString().hashCode();
+      return 31 * filename.hashCode() + blknum;
    }
 }
@@ -0,0 +1,31 @@
+package simpledb.file;
+
+/**
+ * The size information that the file manager keeps for an open file.
+ * The logical size of a file is the number of blocks that
+ * have been appended to it; the allocated size is the number of
+ * blocks in the file on disk, which can be larger when the
+ * file manager allocates space in extents.
+ * The blocks between the two sizes hold zeros.
+ * <p>
+ * Both sizes can be read without locking;
+ * they are changed while holding the lock of this object.
+ * The allocated size is read by the file's mapped view,
+ * to find the segments that can be mapped.
+ */
+class FileExtent {
+   volatile int size;
+   volatile int allocated;
+   int extentBlocks;
+
+   /**
+    * Creates the size information of a file.
+    * @param size the number of blocks in the file on disk
+    * @param extentBlocks the number of blocks allocated at a time
+    */
+   FileExtent(int size, int extentBlocks) {
+      this.size = size;
+      this.allocated = size;
+      this.extentBlocks = extentBlocks;
+   }
+}
@@ -4,7 +4,11 @@ import static simpledb.file.Page.BLOCK_SIZE;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The SimpleDB file manager.
@@ -19,12 +23,94 @@ import java.util.*;
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * <p>
+ * The block size of a database is chosen when the database
+ * is created, and is recorded in its header file;
+ * the file manager sets {@link Page#BLOCK_SIZE} from it.
+ * So is the choice of page checksums: if a database has them,
+ * the file manager writes a checksum into the header of each
+ * page it writes, and verifies the checksum of each page it
+ * reads (see {@link PageChecksum}).
+ * The header file also names the checksum algorithm;
+ * a database whose algorithm is not the one this
+ * version computes is refused.
+ * <p>
+ * In mapped mode, files are read and written through memory-mapped
+ * segments instead of the file channel, whenever possible
+ * (see {@link MappedFile}).
+ * <p>
+ * Files are not opened in synchronous mode, so a write reaches
+ * the disk at a time of the operating system's choosing.
+ * Durability comes from explicit calls to {@link #force(String) force}:
+ * the log manager forces the log when it flushes it, and the recovery
+ * manager forces the modified data files at commit, rollback and
+ * checkpoint, before it writes the corresponding log record.
+ * Temporary files are never forced.
+ * <p>
+ * The methods of the file manager are not synchronized.
+ * Positional reads and writes of a file channel are thread-safe,
+ * so I/O on different files (and on different blocks of the same file)
+ * proceeds in parallel; only appends to the same file are serialized.
+ * <p>
+ * The file manager keeps the size of each open file in memory,
+ * so that {@link #size(String) size} does not make a system call.
+ * Space is allocated to a file in extents of several blocks,
+ * so that most appends do not change the size of the file on disk.
+ * An extent is filled with zeros when it is allocated,
+ * so that its space is reserved on disk.
+ * The unused part of each extent is released by {@link #trim()}
+ * at shutdown.
+ * So that a crash does not leave it in the file, where it would
+ * count toward the size of the file when the database restarts,
+ * each reserved extent is recorded in the extents file before
+ * it is allocated, together with the number of blocks that the
+ * file is known to hold: its size when the extent was allocated,
+ * or when the file was last forced.
+ * At startup, {@link #releaseExtents()} cuts each recorded file back
+ * before the blocks of zeros at the end of its extent,
+ * but never below that number of blocks.
+ * <p>
+ * Several pages can be written at once by {@link #write(SortedMap)},
+ * which writes each run of adjacent blocks of a file
+ * with a single gathering write.
+ * <p>
+ * The files of temporary tables (whose names begin with "temp")
+ * can be kept in a directory of their own, such as a tmpfs
+ * mount, apart from the database.
+ * Temporary files are never forced, and they are deleted
+ * by {@link #delete(String)} when their table is no longer needed,
+ * as well as when the file manager starts.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The name of the header file, which records the block size
+    * and the page checksum settings.
+    */
+   public static final String HEADER_FILE = "simpledb.hdr";
+   
+   /**
+    * The name of the extents file, which records the extents
+    * that have been allocated and not yet released.
+    */
+   public static final String EXTENTS_FILE = "simpledb.extents";
+   
+   /**
+    * The maximum number of blocks written by one gathering write.
+    */
+   public static final int MAX_BATCH_BLOCKS = 256;
+   
    private File dbDirectory;
+   private File tempDirectory;
    private boolean isNew;
-   private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
+   private boolean mapped;
+   private boolean checksums;
+   private int extentBlocks;
+   private ConcurrentMap<String,FileChannel> openFiles = new ConcurrentHashMap<String,FileChannel>();
+   private ConcurrentMap<String,MappedFile> mappedFiles = new ConcurrentHashMap<String,MappedFile>();
+   private ConcurrentMap<String,FileExtent> extents = new ConcurrentHashMap<String,FileExtent>();
+   private Map<String,int[]> reserved = new TreeMap<String,int[]>();  // the known size and the extent end of each file
+   private volatile Set<Block> repairing = null;  // the blocks with bad checksums read during repair
 
    /**
     * Creates a file manager for the specified database.
@@ -36,81 +122,523 @@ public class FileMgr {
     * @param dbname the name of the directory that holds the database
     */
    public FileMgr(String dbname) {
+      this(dbname, Page.DEFAULT_BLOCK_SIZE, false, false, 1, null);
+   }
+   
+   /**
+    * Creates a file manager for the specified database,
+    * which optionally accesses its files through memory mappings,
+    * and which allocates space to files in extents of the specified size.
+    * If the database is new, it is created with the specified
+    * block size, which must be a power of 2 between
+    * {@link Page#MIN_BLOCK_SIZE} and {@link Page#MAX_BLOCK_SIZE},
+    * and with or without page checksums;
+    * otherwise, these settings are read from the database's
+    * header file, and the specified ones are ignored.
+    * A database without a header file has the
+    * {@link Page#LEGACY_BLOCK_SIZE legacy} block size,
+    * and no page checksums.
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size of a new database
+    * @param checksums true if the pages of a new database have checksums
+    * @param mapped true if files should be memory-mapped
+    * @param extentBlocks the number of blocks allocated to a file at a time
+    * @param tempdir the directory in which a subdirectory named after
+    * the database holds the temporary files, or null to keep them
+    * in the database directory
+    */
+   public FileMgr(String dbname, int blocksize, boolean checksums, boolean mapped,
+                  int extentBlocks, String tempdir) {
+      this.mapped = mapped;
+      this.extentBlocks = Math.max(1, extentBlocks);
       String homedir = System.getProperty("user.home");
       dbDirectory = new File(homedir, dbname);
       isNew = !dbDirectory.exists();
 
+      if (isNew && (blocksize < Page.MIN_BLOCK_SIZE || blocksize > Page.MAX_BLOCK_SIZE
+                    || Integer.bitCount(blocksize) != 1))
+         throw new RuntimeException("unsupported block size " + blocksize);
+      
       // create the directory if the database is new
       if (isNew && !dbDirectory.mkdir())
          throw new RuntimeException("cannot create " + dbname);
+      
+      File header = new File(dbDirectory, HEADER_FILE);
+      if (isNew)
+         writeHeader(header, blocksize, checksums);
+      else if (header.exists()) {
+         Properties props = readHeader(header);
+         blocksize = parseBlockSize(props, header);
+         checksums = Boolean.parseBoolean(props.getProperty("checksums"));
+         // databases created before the algorithm was recorded use CRC-32
+         String algorithm = props.getProperty("checksumalgorithm", "crc32");
+         if (checksums && !algorithm.equals(PageChecksum.ALGORITHM))
+            throw new RuntimeException("unsupported checksum algorithm " + algorithm + " in " + header);
+      }
+      else {
+         blocksize = Page.LEGACY_BLOCK_SIZE;
+         checksums = false;
+      }
+      this.checksums = checksums;
+      Page.BLOCK_SIZE = blocksize;
+      Page.HEADER_SIZE = checksums ? PageChecksum.HEADER_SIZE : 0;
+      Page.DATA_SIZE = blocksize - Page.HEADER_SIZE;
+
+      tempDirectory = dbDirectory;
+      if (tempdir != null) {
+         tempDirectory = new File(tempdir, dbname);
+         if (!tempDirectory.exists() && !tempDirectory.mkdirs())
+            throw new RuntimeException("cannot create " + tempDirectory);
+      }
 
       // remove any leftover temporary tables
-      for (String filename : dbDirectory.list())
-         if (filename.startsWith("temp"))
-         new File(dbDirectory, filename).delete();
+      removeTempFiles(dbDirectory);
+      removeTempFiles(tempDirectory);
+      
+      readExtents();
+   }
+   
+   /**
+    * Returns true if the specified file holds a temporary table.
+    * @param filename the name of the file
+    * @return true if the file is temporary
+    */
+   public static boolean isTempFile(String filename) {
+      return filename.startsWith("temp");
    }
 
    /**
     * Reads the contents of a disk block into a bytebuffer.
+    * If the database has page checksums, the checksum
+    * of the page is verified.
+    * The part of a block beyond the end of the file reads as zeros;
+    * recovery can meet such a block when a transaction appended it
+    * but the file was not forced before a crash.
+    * A page whose checksum fails is accepted while the file manager
+    * is repairing (see {@link #startRepair()}).
+    * <p>
+    * A read does not create a missing file, since a block
+    * can be read after its temporary table has been deleted.
+    * Recovery is the exception: a file whose creation was lost
+    * in a crash is created again, and redo rebuilds its blocks.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
       try {
-         bb.clear();
-         FileChannel fc = getFile(blk.fileName());
-         fc.read(bb, blk.number() * BLOCK_SIZE);
+         FileChannel fc = getFile(blk.fileName(), repairing != null);
+         if (!mapped || !getMappedFile(blk.fileName()).read(fc, blk.number(), bb)) {
+            bb.clear();
+            fc.read(bb, (long) blk.number() * BLOCK_SIZE);
+            while (bb.hasRemaining())
+               bb.put((byte) 0);
+         }
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
+      if (checksums && !PageChecksum.verify(bb)) {
+         Set<Block> repaired = repairing;
+         if (repaired == null)
+            throw new RuntimeException("bad checksum in block " + blk);
+         if (repaired.add(blk))
+            System.err.println("bad checksum in block " + blk + "; rebuilding it from the log");
+      }
+   }
+   
+   /**
+    * Starts accepting pages whose checksums fail, instead of
+    * throwing an exception.
+    * The recovery manager calls this method before it redoes the log.
+    * A page that fails its checksum was torn by a crash while it was
+    * being written; its bytes are a mix of the new version and
+    * the version last on disk, and redo rewrites every value that
+    * changed since that version.
+    */
+   public void startRepair() {
+      repairing = Collections.newSetFromMap(new ConcurrentHashMap<Block,Boolean>());
+   }
+   
+   /**
+    * Stops accepting pages whose checksums fail.
+    * The pages that failed since {@link #startRepair()} and
+    * still fail on disk (because redo did not modify them)
+    * are written back with a new checksum.
+    * The recovery manager calls this method after it has
+    * written the pages that recovery modified.
+    * @return the blocks whose checksums failed
+    */
+   public Set<Block> stopRepair() {
+      Set<Block> repaired = repairing;
+      repairing = null;
+      if (repaired == null)
+         return Collections.emptySet();
+      ByteBuffer bb = ByteBuffer.allocateDirect(BLOCK_SIZE);
+      for (Block blk : repaired)
+         if (!verify(blk, bb)) {
+            write(blk, bb);
+            force(blk.fileName());
+         }
+      return repaired;
    }
 
    /**
     * Writes the contents of a bytebuffer into a disk block.
+    * If the database has page checksums, the checksum
+    * is written into the page's header first.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
+      if (checksums)
+         PageChecksum.stamp(bb);
       try {
-         bb.rewind();
          FileChannel fc = getFile(blk.fileName());
-         fc.write(bb, blk.number() * BLOCK_SIZE);
+         if (!mapped || !getMappedFile(blk.fileName()).write(fc, blk.number(), bb)) {
+            bb.rewind();
+            fc.write(bb, (long) blk.number() * BLOCK_SIZE);
+         }
+         FileExtent ext = getExtent(blk.fileName());
+         if (blk.number() >= ext.size)
+            extend(ext, blk.number() + 1);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
+   /**
+    * Writes the specified pages to their blocks.
+    * Adjacent blocks of the same file are written by a
+    * single gathering write of up to {@link #MAX_BATCH_BLOCKS} pages,
+    * so that a batch of sorted blocks needs few system calls.
+    * In mapped mode, each page is written separately.
+    * The caller must ensure that the pages do not
+    * change while they are written.
+    * @param pages the pages to be written, keyed on their blocks
+    */
+   public void write(SortedMap<Block,Page> pages) {
+      List<ByteBuffer> run = new ArrayList<ByteBuffer>();
+      Block first = null, prev = null;
+      for (Map.Entry<Block,Page> e : pages.entrySet()) {
+         Block blk = e.getKey();
+         ByteBuffer bb = e.getValue().contents();
+         if (mapped) {
+            write(blk, bb.duplicate());
+            continue;
+         }
+         if (prev == null || !blk.fileName().equals(prev.fileName())
+               || blk.number() != prev.number() + 1 || run.size() == MAX_BATCH_BLOCKS) {
+            if (!run.isEmpty())
+               writeRun(first, run);
+            run.clear();
+            first = blk;
+         }
+         if (checksums)
+            PageChecksum.stamp(bb);
+         run.add(bb.duplicate());
+         prev = blk;
+      }
+      if (!run.isEmpty())
+         writeRun(first, run);
+   }
+
    /**
     * Appends the contents of a bytebuffer to the end
     * of the specified file.
+    * Appends to the same file are serialized by
+    * synchronizing on the file's size information.
+    * If the file has used up its allocated space,
+    * another extent is allocated first.
     * @param filename the name of the file
     * @param bb  the bytebuffer
     * @return a reference to the newly-created block.
     */
-   synchronized Block append(String filename, ByteBuffer bb) {
-      int newblknum = size(filename);
-      Block blk = new Block(filename, newblknum);
-      write(blk, bb);
-      return blk;
+   Block append(String filename, ByteBuffer bb) {
+      FileExtent ext;
+      try {
+         ext = getExtent(filename);
+         synchronized (ext) {
+            Block blk = new Block(filename, ext.size);
+            if (ext.size >= ext.allocated)
+               allocate(filename, ext);
+            write(blk, bb);
+            return blk;
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot access " + filename);
+      }
    }
 
    /**
     * Returns the number of blocks in the specified file.
+    * The size is kept in memory, and does not include
+    * blocks that have been allocated but not yet appended.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int size(String filename) {
+   public int size(String filename) {
       try {
-         FileChannel fc = getFile(filename);
-         return (int)(fc.size() / BLOCK_SIZE);
+         return getExtent(filename).size;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot access " + filename);
+      }
+   }
+   
+   /**
+    * Sets the number of blocks that are allocated at a time
+    * to the specified file.
+    * A size of 1 turns off extent allocation for the file,
+    * which is needed for a file (such as the log) whose
+    * last block is located from its size on disk.
+    * @param filename the name of the file
+    * @param blocks the number of blocks in an extent
+    */
+   public void setExtentBlocks(String filename, int blocks) {
+      try {
+         FileExtent ext = getExtent(filename);
+         synchronized (ext) {
+            ext.extentBlocks = Math.max(1, blocks);
+         }
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
+   
+   /**
+    * Releases the space that has been allocated to each file
+    * beyond its last appended block.
+    * In mapped mode, the space in mapped segments is kept.
+    * This method is called at shutdown.
+    */
+   public void trim() {
+      synchronized (reserved) {
+         for (Map.Entry<String,FileExtent> e : extents.entrySet()) {
+            String filename = e.getKey();
+            FileExtent ext = e.getValue();
+            synchronized (ext) {
+               int keep = ext.size;
+               MappedFile mf = mappedFiles.get(filename);
+               if (mf != null)
+                  keep = Math.max(keep, mf.mappedBlocks());
+               if (keep > ext.size && !isTempFile(filename))
+                  reserved.put(filename, new int[] {ext.size, keep});
+               else
+                  reserved.remove(filename);
+               if (ext.allocated <= keep)
+                  continue;
+               try {
+                  getFile(filename).truncate((long) keep * BLOCK_SIZE);
+                  ext.allocated = keep;
+               }
+               catch (IOException ex) {
+                  throw new RuntimeException("cannot trim " + filename);
+               }
+            }
+         }
+         writeExtents();
+      }
+   }
+   
+   /**
+    * Releases the unused space of the extents recorded in the
+    * extents file, which were not released by {@link #trim()}
+    * because the database crashed, or were kept
+    * for mapped segments.
+    * Each recorded file is cut back before the blocks of zeros
+    * at its end, but not below the number of blocks that
+    * it was known to hold.
+    * The blocks that are cut are appended blocks that were
+    * never forced, if any, and recovery restores those it needs.
+    * This method is called at startup, before recovery,
+    * and before any of the files is accessed;
+    * tools that only read the database do not call it.
+    */
+   public void releaseExtents() {
+      synchronized (reserved) {
+         if (reserved.isEmpty())
+            return;
+         ByteBuffer bb = ByteBuffer.allocate(BLOCK_SIZE);
+         for (Map.Entry<String,int[]> e : reserved.entrySet()) {
+            String filename = e.getKey();
+            int known = e.getValue()[0];
+            int end = e.getValue()[1];
+            if (!fileFor(filename).exists())
+               continue;
+            try {
+               FileChannel fc = getFile(filename, false);
+               int blocks = (int) (fc.size() / BLOCK_SIZE);
+               if (blocks > end)
+                  continue;  // written beyond the extent, which is no longer the last one
+               int keep = blocks;
+               while (keep > known && isZeroBlock(fc, keep-1, bb))
+                  keep--;
+               if (keep < blocks)
+                  fc.truncate((long) keep * BLOCK_SIZE);
+               extents.remove(filename);
+            }
+            catch (IOException ex) {
+               throw new RuntimeException("cannot trim " + filename);
+            }
+         }
+         reserved.clear();
+         writeExtents();
+      }
+   }
 
+   /**
+    * Forces the writes to the specified file to disk,
+    * including the writes to its mapped segments.
+    * The method does nothing for a temporary file,
+    * or for a file that has not been opened.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      if (isTempFile(filename))
+         return;
+      FileChannel fc = openFiles.get(filename);
+      if (fc == null)
+         return;
+      FileExtent ext = extents.get(filename);
+      int size = (ext == null) ? 0 : ext.size;
+      MappedFile mf = mappedFiles.get(filename);
+      if (mf != null)
+         mf.force();
+      try {
+         fc.force(false);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot force " + filename);
+      }
+      synchronized (reserved) {
+         int[] r = reserved.get(filename);
+         if (r != null && size > r[0]) {
+            r[0] = Math.min(size, r[1]);
+            writeExtents();
+         }
+      }
+   }
+   
+   /**
+    * Forces the writes to all open files to disk,
+    * except for temporary files.
+    */
+   public void forceAll() {
+      for (String filename : openFiles.keySet())
+         force(filename);
+   }
+   
+   /**
+    * Closes and deletes the specified temporary file.
+    * The caller must ensure that the file is no longer in use,
+    * and that the buffer manager will not write any of its blocks
+    * (see {@link simpledb.buffer.BufferMgr#discard(String)}).
+    * @param filename the name of the temporary file
+    */
+   public void delete(String filename) {
+      if (!isTempFile(filename))
+         throw new IllegalArgumentException("not a temporary file: " + filename);
+      close(filename);
+      fileFor(filename).delete();
+   }
+   
+   /**
+    * Cuts the specified file back to the specified number of blocks.
+    * The log manager calls this method to remove the blocks
+    * at the end of the log that were torn by a crash.
+    * @param filename the name of the file
+    * @param blocks the number of blocks to keep
+    */
+   public void truncate(String filename, int blocks) {
+      close(filename);
+      try {
+         FileChannel fc = getFile(filename);
+         fc.truncate((long) blocks * BLOCK_SIZE);
+         fc.force(true);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot truncate " + filename);
+      }
+   }
+   
+   /**
+    * Closes the specified file, and forgets its size,
+    * so that it can be deleted or moved.
+    * The file is opened again if it is accessed later.
+    * The caller must ensure that the file is no longer in use.
+    * The log manager calls this method before it
+    * removes a segment of the log.
+    * @param filename the name of the file
+    */
+   public void close(String filename) {
+      extents.remove(filename);
+      mappedFiles.remove(filename);
+      FileChannel fc = openFiles.remove(filename);
+      try {
+         if (fc != null)
+            fc.close();
+      }
+      catch (IOException e) {
+         // the file is no longer used anyway
+      }
+   }
+   
+   /**
+    * Returns true if the pages of the database have checksums.
+    * @return true if the database has page checksums
+    */
+   public boolean hasChecksums() {
+      return checksums;
+   }
+   
+   /**
+    * Reads the specified block from disk, bypassing any
+    * memory mapping, and verifies its checksum.
+    * The block is read into the specified byte buffer,
+    * which must hold BLOCK_SIZE bytes.
+    * This method is used by {@link simpledb.server.VerifyPages}.
+    * @param blk a reference to a disk block
+    * @param bb a byte buffer for the contents of the block
+    * @return true if the checksum matches, or if the database
+    * has no page checksums
+    */
+   public boolean verify(Block blk, ByteBuffer bb) {
+      try {
+         FileChannel fc = getFile(blk.fileName(), false);
+         bb.clear();
+         long pos = (long) blk.number() * BLOCK_SIZE;
+         while (bb.hasRemaining() && fc.read(bb, pos + bb.position()) >= 0)
+            ;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read block " + blk);
+      }
+      return !checksums || PageChecksum.verify(bb);
+   }
+   
+   /**
+    * Returns true if the specified file exists
+    * in the database directory.
+    * Unlike {@link #size(String) size}, this method
+    * does not create the file.
+    * @param filename the name of the file
+    * @return true if the file exists
+    */
+   public boolean exists(String filename) {
+      return fileFor(filename).exists();
+   }
+   
+   /**
+    * Returns the directory that holds the database.
+    * @return the database directory
+    */
+   public File directory() {
+      return dbDirectory;
+   }
+   
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
@@ -120,23 +648,311 @@ public class FileMgr {
       return isNew;
    }
 
+   /**
+    * Returns the file that holds the specified table,
+    * which is in the temporary directory if the table is temporary.
+    * @param filename the name of the file
+    * @return the file
+    */
+   private File fileFor(String filename) {
+      return new File(isTempFile(filename) ? tempDirectory : dbDirectory, filename);
+   }
+   
+   private void removeTempFiles(File dir) {
+      for (String filename : dir.list())
+         if (isTempFile(filename))
+         new File(dir, filename).delete();
+   }
+   
+   /**
+    * Reads the extents file, if the database has one.
+    * Each line maps a file name to the number of blocks that the
+    * file is known to hold and the end of its last extent.
+    */
+   private void readExtents() {
+      File f = new File(dbDirectory, EXTENTS_FILE);
+      if (!f.exists())
+         return;
+      Properties props = readHeader(f);
+      for (String filename : props.stringPropertyNames()) {
+         String[] vals = props.getProperty(filename).trim().split("\\s+");
+         try {
+            reserved.put(filename, new int[] {Integer.parseInt(vals[0]), Integer.parseInt(vals[1])});
+         }
+         catch (RuntimeException e) {
+            throw new RuntimeException("bad extent of " + filename + " in " + f);
+         }
+      }
+   }
+   
+   /**
+    * Writes the reserved extents to the extents file, and forces it.
+    * The file is written under another name and then renamed,
+    * so that a crash leaves either the old or the new version.
+    * The caller must hold the lock on the reserved extents.
+    */
+   private void writeExtents() {
+      Properties props = new Properties();
+      for (Map.Entry<String,int[]> e : reserved.entrySet())
+         props.setProperty(e.getKey(), e.getValue()[0] + " " + e.getValue()[1]);
+      File f = new File(dbDirectory, EXTENTS_FILE);
+      File tmp = new File(dbDirectory, EXTENTS_FILE + ".new");
+      try {
+         FileOutputStream out = new FileOutputStream(tmp);
+         try {
+            props.store(out, "SimpleDB reserved extents: known size, extent end");
+            out.getFD().sync();
+         }
+         finally {
+            out.close();
+         }
+         Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + f);
+      }
+   }
+   
+   /**
+    * Returns true if the specified block of a file holds only zeros.
+    * @param fc the file channel
+    * @param blknum the number of the block
+    * @param bb a buffer of one block, into which the block is read
+    * @return true if every byte of the block is zero
+    * @throws IOException
+    */
+   private boolean isZeroBlock(FileChannel fc, int blknum, ByteBuffer bb) throws IOException {
+      bb.clear();
+      fc.read(bb, (long) blknum * BLOCK_SIZE);
+      for (int i=0; i<bb.position(); i++)
+         if (bb.get(i) != 0)
+            return false;
+      return true;
+   }
+   
+   /**
+    * Writes the header file of a new database.
+    * @param header the header file
+    * @param blocksize the block size of the database
+    * @param checksums true if the pages of the database have checksums
+    */
+   private void writeHeader(File header, int blocksize, boolean checksums) {
+      Properties props = new Properties();
+      props.setProperty("blocksize", Integer.toString(blocksize));
+      props.setProperty("checksums", Boolean.toString(checksums));
+      if (checksums)
+         props.setProperty("checksumalgorithm", PageChecksum.ALGORITHM);
+      try {
+         OutputStream out = new FileOutputStream(header);
+         try {
+            props.store(out, "SimpleDB database header");
+         }
+         finally {
+            out.close();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + header);
+      }
+   }
+   
+   /**
+    * Reads the header file of a database.
+    * @param header the header file
+    * @return the settings of the database
+    */
+   private Properties readHeader(File header) {
+      Properties props = new Properties();
+      try {
+         InputStream in = new FileInputStream(header);
+         try {
+            props.load(in);
+         }
+         finally {
+            in.close();
+         }
+         return props;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + header);
+      }
+   }
+   
+   /**
+    * Returns the block size recorded in the header file of a database.
+    * @param props the settings of the database
+    * @param header the header file
+    * @return the block size of the database
+    */
+   private int parseBlockSize(Properties props, File header) {
+      try {
+         return Integer.parseInt(props.getProperty("blocksize"));
+      }
+      catch (NumberFormatException e) {
+         throw new RuntimeException("bad block size in " + header);
+      }
+   }
+   
    /**
     * Returns the file channel for the specified filename.
     * The file channel is stored in a map keyed on the filename.
     * If the file is not open, then it is opened and the file channel
     * is added to the map.
+    * If two threads open the file at the same time,
+    * the channel of the thread that loses is closed.
+    * A channel that was closed because a thread was interrupted
+    * during I/O is replaced by a newly-opened one.
     * @param filename the specified filename
     * @return the file channel associated with the open file.
     * @throws IOException
     */
    private FileChannel getFile(String filename) throws IOException {
+      return getFile(filename, true);
+   }
+   
+   /**
+    * Returns the file channel for the specified filename,
+    * creating the file only if so specified.
+    * @param filename the specified filename
+    * @param create true if a missing file should be created
+    * @return the file channel associated with the open file.
+    * @throws IOException if the file cannot be opened, or
+    * is missing and is not to be created
+    */
+   private FileChannel getFile(String filename, boolean create) throws IOException {
       FileChannel fc = openFiles.get(filename);
-      if (fc == null) {
-         File dbTable = new File(dbDirectory, filename);
-         RandomAccessFile f = new RandomAccessFile(dbTable, "rws");
-         fc = f.getChannel();
-         openFiles.put(filename, fc);
+      if (fc != null && fc.isOpen())
+         return fc;
+      File dbTable = fileFor(filename);
+      FileChannel newfc;
+      if (create)
+         newfc = new RandomAccessFile(dbTable, "rw").getChannel();
+      else
+         newfc = FileChannel.open(dbTable.toPath(),
+                                  StandardOpenOption.READ, StandardOpenOption.WRITE);
+      boolean added = (fc == null) ? openFiles.putIfAbsent(filename, newfc) == null
+                                   : openFiles.replace(filename, fc, newfc);
+      if (added)
+         return newfc;
+      newfc.close();
+      return getFile(filename, create);
+   }
+   
+   /**
+    * Writes the specified buffers to consecutive blocks of a file,
+    * starting at the specified block.
+    * A gathering write uses the channel's position,
+    * so the writes of a file's runs are serialized
+    * by synchronizing on the channel.
+    * @param first the first block of the run
+    * @param run the contents of the blocks
+    */
+   private void writeRun(Block first, List<ByteBuffer> run) {
+      ByteBuffer[] bbs = run.toArray(new ByteBuffer[run.size()]);
+      long remaining = 0;
+      for (ByteBuffer bb : bbs) {
+         bb.clear();
+         remaining += bb.remaining();
+      }
+      try {
+         FileChannel fc = getFile(first.fileName());
+         synchronized (fc) {
+            fc.position((long) first.number() * BLOCK_SIZE);
+            while (remaining > 0)
+               remaining -= fc.write(bbs);
+         }
+         FileExtent ext = getExtent(first.fileName());
+         int end = first.number() + bbs.length;
+         if (end > ext.size)
+            extend(ext, end);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write blocks from " + first);
+      }
+   }
+   
+   /**
+    * Returns the size information of the specified file,
+    * reading the size of the file the first time.
+    * @param filename the specified filename
+    * @return the size information of the file
+    * @throws IOException
+    */
+   private FileExtent getExtent(String filename) throws IOException {
+      FileExtent ext = extents.get(filename);
+      if (ext == null) {
+         int blocks = (int) (getFile(filename).size() / BLOCK_SIZE);
+         ext = new FileExtent(blocks, extentBlocks);
+         FileExtent existing = extents.putIfAbsent(filename, ext);
+         if (existing != null)
+            ext = existing;
+      }
+      return ext;
+   }
+   
+   /**
+    * Allocates the next extent of the specified file,
+    * by writing zeros to all of its blocks, so that the
+    * space is reserved on disk instead of left as a hole.
+    * The extent of a database file is recorded in the extents
+    * file first, so that its unused part can be released
+    * after a crash.
+    * Nothing is done if extents are one block long, since the
+    * write of the appended block then extends the file.
+    * The caller must hold the lock on the size information.
+    * @param filename the specified filename
+    * @param ext the size information of the file
+    * @throws IOException
+    */
+   private void allocate(String filename, FileExtent ext) throws IOException {
+      if (ext.extentBlocks <= 1)
+         return;
+      int newalloc = ext.size + ext.extentBlocks;
+      if (!isTempFile(filename)) {
+         synchronized (reserved) {
+            reserved.put(filename, new int[] {ext.size, newalloc});
+            writeExtents();
+         }
+      }
+      FileChannel fc = getFile(filename);
+      ByteBuffer zeros = ByteBuffer.allocate(ext.extentBlocks * BLOCK_SIZE);
+      long pos = (long) ext.size * BLOCK_SIZE;
+      while (zeros.hasRemaining())
+         pos += fc.write(zeros, pos);
+      ext.allocated = newalloc;
+   }
+   
+   /**
+    * Raises the logical size of a file after a block
+    * at or beyond its end has been written.
+    * @param ext the size information of the file
+    * @param newsize the new number of blocks
+    */
+   private void extend(FileExtent ext, int newsize) {
+      synchronized (ext) {
+         if (newsize > ext.size)
+            ext.size = newsize;
+         if (newsize > ext.allocated)
+            ext.allocated = newsize;
+      }
+   }
+   
+   /**
+    * Returns the mapped view of the specified file,
+    * creating it if necessary.
+    * @param filename the specified filename
+    * @return the mapped view of the file
+    * @throws IOException
+    */
+   private MappedFile getMappedFile(String filename) throws IOException {
+      MappedFile mf = mappedFiles.get(filename);
+      if (mf == null) {
+         mf = new MappedFile(getExtent(filename), !isTempFile(filename));
+         MappedFile existing = mappedFiles.putIfAbsent(filename, mf);
+         if (existing != null)
+            mf = existing;
       }
-      return fc;
+      return mf;
    }
 }
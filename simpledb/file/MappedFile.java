@@ -0,0 +1,148 @@
+package simpledb.file;
+
+import static simpledb.file.Page.BLOCK_SIZE;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * The memory-mapped view of a file, used by the file manager
+ * when it runs in mapped mode.
+ * The file is mapped in segments of SEGMENT_BLOCKS blocks.
+ * Only complete segments are mapped, so that mapping never
+ * changes the size of the file; blocks in the partial
+ * segment at the end of the file are not mapped, and the
+ * file manager accesses them through the file channel.
+ * A segment is mapped the first time one of its blocks is
+ * accessed after the file has grown to include it.
+ * The size of the file is taken from the allocated size that
+ * the file manager keeps, so that accessing an unmapped block
+ * does not cost a system call to find the size.
+ * The segments are small (1 MB with 4K blocks), so that all but
+ * the last few blocks of a table are mapped; a larger segment
+ * would leave most tables unmapped, while a smaller one would
+ * use up the process's limit on the number of mappings.
+ * <p>
+ * Writes to a mapped segment reach the disk whenever the
+ * operating system chooses, or when the segment is forced.
+ * That does not violate the write-ahead rule, since a buffer
+ * writes its page only after flushing the log.
+ * The modified segments are forced along with the file's channel,
+ * by {@link FileMgr#force(String)}.
+ * <p>
+ * The list of mapped segments is synchronized on the mapped file,
+ * but the blocks themselves are copied without locking.
+ * The file's channel is passed to each method, so that the
+ * file manager can replace a channel that has been closed.
+ */
+class MappedFile {
+   static final int SEGMENT_BLOCKS = 256;
+   private long segmentSize = (long) SEGMENT_BLOCKS * BLOCK_SIZE;
+   private FileExtent ext;
+   private boolean durable;
+   private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+   private Set<Integer> modified = new HashSet<Integer>();
+   
+   /**
+    * Creates the mapped view of a file.
+    * @param ext the size information of the file
+    * @param durable false if the file's contents do not need to
+    * survive a crash, so that its segments are never forced
+    */
+   MappedFile(FileExtent ext, boolean durable) {
+      this.ext = ext;
+      this.durable = durable;
+   }
+   
+   /**
+    * Reads the specified block into the byte buffer,
+    * if the block belongs to a complete segment.
+    * @param fc the file's channel
+    * @param blknum the block number
+    * @param bb the byte buffer
+    * @return false if the block is not mapped, and was not read
+    * @throws IOException
+    */
+   boolean read(FileChannel fc, int blknum, ByteBuffer bb) throws IOException {
+      ByteBuffer src = slice(fc, blknum);
+      if (src == null)
+         return false;
+      bb.clear();
+      bb.put(src);
+      return true;
+   }
+   
+   /**
+    * Writes the byte buffer to the specified block,
+    * if the block belongs to a complete segment.
+    * @param fc the file's channel
+    * @param blknum the block number
+    * @param bb the byte buffer
+    * @return false if the block is not mapped, and was not written
+    * @throws IOException
+    */
+   boolean write(FileChannel fc, int blknum, ByteBuffer bb) throws IOException {
+      ByteBuffer dest = slice(fc, blknum);
+      if (dest == null)
+         return false;
+      bb.rewind();
+      dest.put(bb);
+      if (durable) {
+         synchronized (this) {
+            modified.add(blknum / SEGMENT_BLOCKS);
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * Forces the modified segments to disk.
+    * The segments are forced without holding the lock,
+    * so that the file can be accessed in the meantime.
+    */
+   void force() {
+      List<MappedByteBuffer> toforce = new ArrayList<MappedByteBuffer>();
+      synchronized (this) {
+         for (int seg : modified)
+            toforce.add(segments.get(seg));
+         modified.clear();
+      }
+      for (MappedByteBuffer segment : toforce)
+         segment.force();
+   }
+   
+   /**
+    * Returns the number of blocks in the mapped segments.
+    * @return the number of mapped blocks
+    */
+   synchronized int mappedBlocks() {
+      return segments.size() * SEGMENT_BLOCKS;
+   }
+   
+   /**
+    * Returns the part of its segment that holds the specified block,
+    * mapping the segment if necessary.
+    * @param fc the file's channel
+    * @param blknum the block number
+    * @return the block's slice of the segment, or null if the
+    * block is in the partial segment at the end of the file
+    * @throws IOException
+    */
+   private synchronized ByteBuffer slice(FileChannel fc, int blknum) throws IOException {
+      int seg = blknum / SEGMENT_BLOCKS;
+      if (seg >= segments.size()) {
+         if (seg >= ext.allocated / SEGMENT_BLOCKS)
+            return null;
+         while (segments.size() <= seg) {
+            long pos = segments.size() * segmentSize;
+            segments.add(fc.map(FileChannel.MapMode.READ_WRITE, pos, segmentSize));
+         }
+      }
+      ByteBuffer b = segments.get(seg).duplicate();
+      int offset = (blknum % SEGMENT_BLOCKS) * BLOCK_SIZE;
+      b.limit(offset + BLOCK_SIZE);
+      b.position(offset);
+      return b;
+   }
+}
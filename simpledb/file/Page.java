@@ -6,7 +6,8 @@ import java.nio.charset.Charset;
 
 /**
  * The contents of a disk block in memory.
- * A page is treated as an array of BLOCK_SIZE bytes.
+ * A page is treated as an array of BLOCK_SIZE bytes,
+ * where the block size is a property of the database.
  * There are methods to get/set values into this array,
  * and to read/write the contents of this array to a disk block.
  * 
@@ -33,16 +34,74 @@ import java.nio.charset.Charset;
  * p3.read(blk);
  * String s = p3.getString(20);
  * </pre>
+ * <p>
+ * The get and set methods are not synchronized, and they access
+ * the page's byte buffer by absolute index, without changing its
+ * position.
+ * Concurrent access to the page of a buffer is controlled by the
+ * transactions' locks on its block: a value is read while holding
+ * a shared lock on the block, and written while holding an
+ * exclusive one.
+ * The methods that read and write the page to disk remain synchronized.
+ * <p>
+ * If the database was created with page checksums, then each
+ * page begins with a header that holds a checksum and the LSN of
+ * the page's most recent modification (see {@link PageChecksum}).
+ * The offsets passed to the get and set methods are relative to
+ * the end of the header, so the header is invisible to the clients
+ * of the page, which can use {@link #DATA_SIZE} bytes.
+ * <p>
+ * Strings are encoded with the platform's default charset.
+ * The method {@link #compareString(int, byte[]) compareString}
+ * compares a stored string with an encoded value in place,
+ * without creating a String.
  * @author Edward Sciore
  */
 public class Page {
    /**
-    * The number of bytes in a block.
-    * This value is set unreasonably low, so that it is easier
+    * The smallest block size of a new database.
+    */
+   public static final int MIN_BLOCK_SIZE = 4096;
+   
+   /**
+    * The largest block size of a new database.
+    */
+   public static final int MAX_BLOCK_SIZE = 65536;
+   
+   /**
+    * The block size of a new database, if none is specified.
+    */
+   public static final int DEFAULT_BLOCK_SIZE = 4096;
+   
+   /**
+    * The block size of a database that was created
+    * before the block size was recorded in its header file.
+    * The value is unreasonably low, so that it is easier
     * to create and test databases having a lot of blocks.
-    * A more realistic value would be 4K.
     */
-   public static final int BLOCK_SIZE = 400;
+   public static final int LEGACY_BLOCK_SIZE = 400;
+   
+   /**
+    * The number of bytes in a block.
+    * The value is set by the {@link FileMgr} when it opens the
+    * database, from the database's header file.
+    */
+   public static int BLOCK_SIZE = DEFAULT_BLOCK_SIZE;
+   
+   /**
+    * The number of bytes at the start of each page that are
+    * reserved for its header: 0 unless the database has
+    * page checksums.
+    * The value is set by the {@link FileMgr} when it opens the database.
+    */
+   public static int HEADER_SIZE = 0;
+   
+   /**
+    * The number of bytes of a page that are available
+    * to its clients, which is BLOCK_SIZE - HEADER_SIZE.
+    * Record pages, B-tree pages and log pages hold this many bytes.
+    */
+   public static int DATA_SIZE = DEFAULT_BLOCK_SIZE;
    
    /**
     * The size of an integer in bytes.
@@ -62,11 +121,23 @@ public class Page {
     * @return the maximum number of bytes required to store a string of size n
     */
    public static final int STR_SIZE(int n) {
-      float bytesPerChar = Charset.defaultCharset().newEncoder().maxBytesPerChar();
+      float bytesPerChar = CHARSET.newEncoder().maxBytesPerChar();
       return INT_SIZE + (n * (int)bytesPerChar);
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
+   /**
+    * Encodes a string the way that it is stored in a page,
+    * for use with {@link #compareString(int, byte[]) compareString}.
+    * @param val the string
+    * @return the encoded bytes of the string
+    */
+   public static byte[] encode(String val) {
+      return val.getBytes(CHARSET);
+   }
+   
+   private static final Charset CHARSET = Charset.defaultCharset();
+   private ByteBuffer contents;
+   private ByteBuffer data;  // the part of contents after the header
    private FileMgr filemgr = SimpleDB.fileMgr();
    
    /**
@@ -81,7 +152,33 @@ public class Page {
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)}
     * is called first.
     */
-   public Page() {}
+   public Page() {
+      this(ByteBuffer.allocateDirect(BLOCK_SIZE));
+   }
+   
+   /**
+    * Creates a page whose contents are the specified
+    * byte buffer, which must hold exactly BLOCK_SIZE bytes.
+    * This constructor is called exclusively by
+    * {@link PageArena#allocate()}.
+    * @param contents the memory of the page
+    */
+   Page(ByteBuffer contents) {
+      this.contents = contents;
+      ByteBuffer b = contents.duplicate();
+      b.clear();
+      b.position(HEADER_SIZE);
+      data = b.slice();
+   }
+   
+   /**
+    * Returns the memory of the page,
+    * so that it can be released to its arena.
+    * @return the page's byte buffer
+    */
+   ByteBuffer contents() {
+      return contents;
+   }
    
    /**
     * Populates the page with the contents of the specified disk block. 
@@ -108,6 +205,27 @@ public class Page {
       return filemgr.append(filename, contents);
    }
    
+   /**
+    * Returns the LSN recorded in the page's header,
+    * or -1 if pages have no header.
+    * @return the LSN of the page's most recent modification
+    */
+   public long getLSN() {
+      if (HEADER_SIZE == 0)
+         return -1;
+      return contents.getLong(PageChecksum.LSN_POS);
+   }
+   
+   /**
+    * Records the specified LSN in the page's header.
+    * The method does nothing if pages have no header.
+    * @param lsn the LSN of a modification of the page
+    */
+   public void setLSN(long lsn) {
+      if (HEADER_SIZE > 0)
+         contents.putLong(PageChecksum.LSN_POS, lsn);
+   }
+   
    /**
     * Returns the integer value at a specified offset of the page.
     * If an integer was not stored at that location, 
@@ -115,9 +233,8 @@ public class Page {
     * @param offset the byte offset within the page
     * @return the integer value at that offset
     */
-   public synchronized int getInt(int offset) {
-      contents.position(offset);
-      return contents.getInt();
+   public int getInt(int offset) {
+      return data.getInt(offset);
    }
    
    /**
@@ -125,9 +242,8 @@ public class Page {
     * @param offset the byte offset within the page
     * @param val the integer to be written to the page
     */
-   public synchronized void setInt(int offset, int val) {
-      contents.position(offset);
-      contents.putInt(val);
+   public void setInt(int offset, int val) {
+      data.putInt(offset, val);
    }
    
    /**
@@ -137,12 +253,13 @@ public class Page {
     * @param offset the byte offset within the page
     * @return the string value at that offset
     */
-   public synchronized String getString(int offset) {
-      contents.position(offset);
-      int len = contents.getInt();
+   public String getString(int offset) {
+      int len = data.getInt(offset);
       byte[] byteval = new byte[len];
-      contents.get(byteval);
-      return new String(byteval);
+      int pos = offset + INT_SIZE;
+      for (int i=0; i<len; i++)
+         byteval[i] = data.get(pos + i);
+      return new String(byteval, CHARSET);
    }
    
    /**
@@ -150,10 +267,61 @@ public class Page {
     * @param offset the byte offset within the page
     * @param val the string to be written to the page
     */
-   public synchronized void setString(int offset, String val) {
-      contents.position(offset);
-      byte[] byteval = val.getBytes();
-      contents.putInt(byteval.length);
-      contents.put(byteval);
+   public void setString(int offset, String val) {
+      byte[] byteval = val.getBytes(CHARSET);
+      data.putInt(offset, byteval.length);
+      int pos = offset + INT_SIZE;
+      for (int i=0; i<byteval.length; i++)
+         data.put(pos + i, byteval[i]);
+   }
+   
+   /**
+    * Returns the specified number of bytes
+    * starting at the specified offset of the page.
+    * @param offset the byte offset within the page
+    * @param len the number of bytes
+    * @return a new array holding the bytes
+    */
+   public byte[] getBytes(int offset, int len) {
+      byte[] val = new byte[len];
+      for (int i=0; i<len; i++)
+         val[i] = data.get(offset + i);
+      return val;
+   }
+   
+   /**
+    * Writes the first len bytes of the specified array
+    * to the specified offset on the page.
+    * @param offset the byte offset within the page
+    * @param val the array holding the bytes
+    * @param len the number of bytes to write
+    */
+   public void setBytes(int offset, byte[] val, int len) {
+      for (int i=0; i<len; i++)
+         data.put(offset + i, val[i]);
+   }
+   
+   /**
+    * Compares the string at the specified offset of the page
+    * with the specified encoded string, without creating a String.
+    * The strings are compared by their encoded bytes, as
+    * unsigned values; for ASCII strings, the result has the sign
+    * of {@link String#compareTo(String)}, and for any strings,
+    * it is 0 exactly when they are equal.
+    * @param offset the byte offset within the page
+    * @param val a string encoded by {@link #encode(String)}
+    * @return a negative value, zero, or a positive value as the stored
+    * string is less than, equal to, or greater than the specified one
+    */
+   public int compareString(int offset, byte[] val) {
+      int len = data.getInt(offset);
+      int n = Math.min(len, val.length);
+      int pos = offset + INT_SIZE;
+      for (int i=0; i<n; i++) {
+         int diff = (data.get(pos + i) & 0xff) - (val[i] & 0xff);
+         if (diff != 0)
+            return diff;
+      }
+      return len - val.length;
    }
 }
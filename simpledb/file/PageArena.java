@@ -0,0 +1,91 @@
+package simpledb.file;
+
+import static simpledb.file.Page.BLOCK_SIZE;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A large region of off-heap memory that is carved into pages.
+ * The buffer pool obtains the pages of its buffers from an arena,
+ * so that a pool of any size is allocated with a few large
+ * direct allocations, instead of one small allocation
+ * (and one Cleaner) per page.
+ * Each page is a slice of a segment of the arena;
+ * a segment holds at most 1GB, which is below the
+ * size limit of a single byte buffer.
+ * Pages that are released (when the pool shrinks) are kept
+ * on a free list and reused when the pool grows again;
+ * the memory of the arena itself is never returned.
+ */
+public class PageArena {
+   private static final int SEGMENT_BYTES = 1 << 30;
+   private List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+   private Deque<ByteBuffer> freePages = new ArrayDeque<ByteBuffer>();
+   private int capacity = 0;
+   
+   /**
+    * Creates an arena, and allocates enough memory
+    * for the specified number of pages.
+    * @param numpages the initial number of pages
+    */
+   public PageArena(int numpages) {
+      reserve(numpages);
+   }
+   
+   /**
+    * Ensures that the specified number of pages can be
+    * allocated without allocating more memory,
+    * by adding segments to the arena if necessary.
+    * @param numpages the number of pages
+    */
+   public synchronized void reserve(int numpages) {
+      int needed = numpages - freePages.size();
+      while (needed > 0) {
+         int n = Math.min(needed, SEGMENT_BYTES / BLOCK_SIZE);
+         addSegment(n);
+         needed -= n;
+      }
+   }
+   
+   /**
+    * Returns a new page whose contents are a slice of the arena.
+    * The arena grows by one page if it has no free pages.
+    * @return a new page
+    */
+   public synchronized Page allocate() {
+      if (freePages.isEmpty())
+         addSegment(1);
+      return new Page(freePages.poll());
+   }
+   
+   /**
+    * Returns the memory of the specified page to the arena.
+    * The page must have been allocated from this arena,
+    * and must not be used afterwards.
+    * @param p the page
+    */
+   public synchronized void release(Page p) {
+      freePages.add(p.contents());
+   }
+   
+   /**
+    * Returns the number of pages that the memory
+    * of the arena can hold.
+    * @return the capacity of the arena, in pages
+    */
+   public synchronized int capacity() {
+      return capacity;
+   }
+   
+   private void addSegment(int numpages) {
+      ByteBuffer segment = ByteBuffer.allocateDirect(numpages * BLOCK_SIZE);
+      segments.add(segment);
+      for (int i=0; i<numpages; i++) {
+         segment.limit((i+1) * BLOCK_SIZE);
+         segment.position(i * BLOCK_SIZE);
+         freePages.add(segment.slice());
+      }
+      segment.clear();
+      capacity += numpages;
+   }
+}
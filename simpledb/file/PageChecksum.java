@@ -0,0 +1,86 @@
+package simpledb.file;
+
+import static simpledb.file.Page.BLOCK_SIZE;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * The checksums of the pages of a database
+ * that was created with page checksums.
+ * Each page then begins with a header of {@link #HEADER_SIZE} bytes:
+ * a checksum of the rest of the page, followed by
+ * the LSN of the most recent modification of the page.
+ * The file manager stamps the checksum when it writes a page,
+ * and verifies it when it reads one.
+ * A page whose bytes are all zero (such as an allocated
+ * block that was never written) is considered valid.
+ * The checksum is a CRC-32; the header file of the database
+ * records the name of the algorithm (see {@link #ALGORITHM}),
+ * so that another one, such as CRC-32C, can be adopted
+ * for new databases while existing ones keep theirs.
+ */
+class PageChecksum {
+   /**
+    * The number of bytes in the page header.
+    */
+   static final int HEADER_SIZE = 12;
+
+   /**
+    * The name of the checksum algorithm, as recorded
+    * in the header file of the database.
+    */
+   static final String ALGORITHM = "crc32";
+
+   /**
+    * The offset of the checksum in the page header.
+    */
+   static final int CHECKSUM_POS = 0;
+
+   /**
+    * The offset of the page LSN in the page header.
+    */
+   static final int LSN_POS = 4;
+
+   /**
+    * Writes the checksum of the specified page into its header.
+    * @param bb the contents of the page
+    */
+   static void stamp(ByteBuffer bb) {
+      bb.putInt(CHECKSUM_POS, compute(bb));
+   }
+
+   /**
+    * Returns true if the checksum in the header of
+    * the specified page matches its contents.
+    * @param bb the contents of the page
+    * @return true if the page is valid
+    */
+   static boolean verify(ByteBuffer bb) {
+      int stored = bb.getInt(CHECKSUM_POS);
+      if (stored == compute(bb))
+         return true;
+      return stored == 0 && isZero(bb);
+   }
+
+   /**
+    * Computes the checksum of the page, which covers
+    * every byte that follows the checksum.
+    * @param bb the contents of the page
+    * @return the checksum
+    */
+   private static int compute(ByteBuffer bb) {
+      ByteBuffer b = bb.duplicate();
+      b.limit(BLOCK_SIZE);
+      b.position(CHECKSUM_POS + 4);
+      CRC32 crc = new CRC32();
+      crc.update(b);
+      return (int) crc.getValue();
+   }
+
+   private static boolean isZero(ByteBuffer bb) {
+      for (int pos=0; pos<BLOCK_SIZE; pos+=8)
+         if (bb.getLong(pos) != 0)
+         return false;
+      return true;
+   }
+}
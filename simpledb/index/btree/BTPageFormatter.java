@@ -39,7 +39,7 @@ public class BTPageFormatter implements PageFormatter {
       page.setInt(0, flag);
       page.setInt(INT_SIZE, 0);  // #records = 0
       int recsize = ti.recordLength();
-      for (int pos=2*INT_SIZE; pos+recsize<=BLOCK_SIZE; pos += recsize)
+      for (int pos=2*INT_SIZE; pos+recsize<=DATA_SIZE; pos += recsize)
          makeDefaultRecord(page, pos);
    }
    
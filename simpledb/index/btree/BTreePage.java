@@ -62,7 +62,7 @@ public class BTreePage {
     * @return true if the block is full
     */
    public boolean isFull() {
-      return slotpos(getNumRecs()+1) >= BLOCK_SIZE;
+      return slotpos(getNumRecs()+1) >= DATA_SIZE;
    }
    
    /**
@@ -1,33 +1,43 @@
 package simpledb.log;
 
-import static simpledb.file.Page.*;
-import simpledb.file.Page;
-
 /**
  * A class that provides the ability to read the values of
  * a log record.
  * The class has no idea what values are there.
- * Instead, the methods {@link #nextInt() nextInt}
- * and {@link #nextString() nextString} read the values 
- * sequentially.
+ * Instead, the methods {@link #nextInt() nextInt},
+ * {@link #nextLong() nextLong}, {@link #nextString() nextString}
+ * and {@link #nextFile() nextFile} read the values
+ * sequentially, in the format written by {@link LogRecordWriter}.
  * Thus the client is responsible for knowing how many values
  * are in the log record, and what their types are.
  * @author Edward Sciore
  */
 public class BasicLogRecord {
-   private Page pg;
-   private int pos;
+   private byte[] bytes;
+   private long lsn;
+   private int pos = 0;
+   private FileDictionary files;
    
    /**
-    * A log record located at the specified position of the specified page.
+    * A log record having the specified contents.
     * This constructor is called exclusively by
     * {@link LogIterator#next()}.
-    * @param pg the page containing the log record
-    * @param pos the position of the log record 
+    * @param bytes the contents of the log record
+    * @param lsn the LSN of the log record
+    * @param files the file dictionary of the log
+    */
+   BasicLogRecord(byte[] bytes, long lsn, FileDictionary files) {
+      this.bytes = bytes;
+      this.lsn = lsn;
+      this.files = files;
+   }
+   
+   /**
+    * Returns the LSN of the log record.
+    * @return the LSN of the log record
     */
-   public BasicLogRecord(Page pg, int pos) {
-      this.pg = pg;
-      this.pos = pos;
+   public long lsn() {
+      return lsn;
    }
    
    /**
@@ -36,9 +46,17 @@ public class BasicLogRecord {
     * @return the next value of the current log record
     */
    public int nextInt() {
-      int result = pg.getInt(pos);
-      pos += INT_SIZE;
-      return result;
+      return (int) nextLong();
+   }
+   
+   /**
+    * Returns the next value of the current log record, 
+    * assuming it is a long integer.
+    * @return the next value of the current log record
+    */
+   public long nextLong() {
+      long val = nextUnsigned();
+      return (val >>> 1) ^ -(val & 1);
    }
    
    /**
@@ -47,8 +65,30 @@ public class BasicLogRecord {
     * @return the next value of the current log record
     */
    public String nextString() {
-      String result = pg.getString(pos);
-      pos += STR_SIZE(result.length());
+      int len = (int) nextUnsigned();
+      String result = new String(bytes, pos, len, LogRecordWriter.UTF8);
+      pos += len;
       return result;
    }
+   
+   /**
+    * Returns the next value of the current log record, 
+    * assuming it is the name of a file.
+    * @return the next value of the current log record
+    */
+   public String nextFile() {
+      return files.name(nextInt());
+   }
+   
+   private long nextUnsigned() {
+      long val = 0;
+      int shift = 0;
+      byte b;
+      do {
+         b = bytes[pos++];
+         val |= (long) (b & 0x7F) << shift;
+         shift += 7;
+      } while (b < 0);
+      return val;
+   }
 }
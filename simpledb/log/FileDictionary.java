@@ -0,0 +1,96 @@
+package simpledb.log;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The dictionary of the file names that appear in log records.
+ * A log record identifies a file by a small integer id
+ * instead of its name.
+ * The names are kept in a dictionary file next to the log,
+ * one per line, and the id of a name is its line number.
+ * A new name is appended to the dictionary file, which is forced
+ * before the id is returned; thus every id in the log
+ * can be resolved when the log is read during recovery.
+ */
+class FileDictionary {
+   private File file;
+   private Map<String,Integer> ids = new HashMap<String,Integer>();
+   private List<String> names = new ArrayList<String>();
+
+   /**
+    * Reads the dictionary in the specified file,
+    * creating the file if it does not exist.
+    * An incomplete last line, left by a crash while the line
+    * was being appended, is removed; its id was never used.
+    * @param file the dictionary file
+    */
+   FileDictionary(File file) {
+      this.file = file;
+      try {
+         RandomAccessFile f = new RandomAccessFile(file, "rw");
+         try {
+            byte[] bytes = new byte[(int) f.length()];
+            f.readFully(bytes);
+            int start = 0;
+            for (int i=0; i<bytes.length; i++)
+               if (bytes[i] == '\n') {
+                  add(new String(bytes, start, i-start, LogRecordWriter.UTF8));
+                  start = i + 1;
+               }
+            if (start < bytes.length)
+               f.setLength(start);
+         }
+         finally {
+            f.close();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + file);
+      }
+   }
+
+   /**
+    * Returns the id of the specified file,
+    * adding the file to the dictionary if necessary.
+    * @param filename the name of the file
+    * @return the id of the file
+    */
+   synchronized int id(String filename) {
+      Integer id = ids.get(filename);
+      if (id != null)
+         return id;
+      try {
+         FileOutputStream out = new FileOutputStream(file, true);
+         try {
+            out.write((filename + "\n").getBytes(LogRecordWriter.UTF8));
+            out.getFD().sync();
+         }
+         finally {
+            out.close();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + file);
+      }
+      return add(filename);
+   }
+
+   /**
+    * Returns the name of the file having the specified id.
+    * @param id the id of a file
+    * @return the name of the file
+    */
+   synchronized String name(int id) {
+      if (id < 0 || id >= names.size())
+         throw new RuntimeException("unknown file id " + id + " in the log");
+      return names.get(id);
+   }
+
+   private int add(String filename) {
+      int id = names.size();
+      names.add(filename);
+      ids.put(filename, id);
+      return id;
+   }
+}
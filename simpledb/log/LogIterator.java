@@ -1,29 +1,39 @@
 package simpledb.log;
 
-import static simpledb.file.Page.INT_SIZE;
+import static simpledb.file.Page.*;
 import simpledb.file.*;
 import java.util.Iterator;
 
 /**
  * A class that provides the ability to move through the
- * records of the log file in reverse order.
+ * records of the log in reverse order.
+ * The iterator moves through the blocks of the log,
+ * which the log manager maps to the blocks of its segments,
+ * down to the first block that had not been truncated
+ * when the iterator was created.
  * 
  * @author Edward Sciore
  */
 class LogIterator implements Iterator<BasicLogRecord> {
-   private Block blk;
+   private LogMgr logMgr;
+   private int blknum;
+   private int firstblk;
    private Page pg = new Page();
    private int currentrec;
+   private FileDictionary files;
    
    /**
-    * Creates an iterator for the records in the log file,
+    * Creates an iterator for the records in the log,
     * positioned after the last log record.
     * This constructor is called exclusively by
     * {@link LogMgr#iterator()}.
     */
-   LogIterator(Block blk) {
-      this.blk = blk;
-      pg.read(blk);
+   LogIterator(LogMgr logMgr, int blknum, int firstblk, FileDictionary files) {
+      this.logMgr = logMgr;
+      this.blknum = blknum;
+      this.firstblk = firstblk;
+      this.files = files;
+      pg.read(logMgr.block(blknum));
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
    
@@ -33,7 +43,7 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentrec>0 || blk.number()>0;
+      return currentrec>0 || blknum>firstblk;
    }
    
    /**
@@ -41,13 +51,18 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * If the current log record is the earliest in its block,
     * then the method moves to the next oldest block,
     * and returns the log record from there.
+    * The record extends from the integer that ends the
+    * previous record to the integer that ends this one.
     * @return the next earliest log record
     */
    public BasicLogRecord next() {
       if (currentrec == 0) 
          moveToNextBlock();
+      int end = currentrec;
       currentrec = pg.getInt(currentrec);
-      return new BasicLogRecord(pg, currentrec+INT_SIZE);
+      int start = currentrec + INT_SIZE;
+      long lsn = (long) blknum * BLOCK_SIZE + start;
+      return new BasicLogRecord(pg.getBytes(start, end-start), lsn, files);
    }
    
    public void remove() {
@@ -59,8 +74,8 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * and positions it after the last record in that block.
     */
    private void moveToNextBlock() {
-      blk = new Block(blk.fileName(), blk.number()-1);
-      pg.read(blk);
+      blknum--;
+      pg.read(logMgr.block(blknum));
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
 }
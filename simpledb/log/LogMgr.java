@@ -3,16 +3,61 @@ package simpledb.log;
 import simpledb.server.SimpleDB;
 import simpledb.file.*;
 import static simpledb.file.Page.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
  * The low-level log manager.
  * This log manager is responsible for writing log records
  * into a log file.
- * A log record can be any sequence of integer and string values.
+ * A log record can be any sequence of integer, string and file name values.
  * The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link simpledb.tx.recovery.RecoveryMgr recovery manager}.
+ * The values are encoded compactly by a {@link LogRecordWriter},
+ * and file names are replaced by ids from a {@link FileDictionary},
+ * which is kept in a file next to the log.
+ * <p>
+ * The LSN of a log record is its byte offset in the log:
+ * the number of its block times the block size,
+ * plus its position in the block.
+ * Records are appended to a ring of log pages.
+ * When the last page (the tail) is full, the records
+ * continue on the next page of the ring, and the full page
+ * stays in memory until a flush writes it.
+ * The tail can therefore keep filling while earlier pages are written.
+ * A page can be reused only after it has been written;
+ * if the ring is full, the appending thread writes its pages itself.
+ * <p>
+ * Log flushes use group commit.
+ * The first thread that needs the log forced becomes the flusher:
+ * it writes the unwritten pages and forces the log file
+ * without holding the lock of the log manager,
+ * so that other threads can append records in the meantime.
+ * Threads that need the log forced while a flush is in progress
+ * wait for it, and the next flusher writes and forces
+ * the records of all of them at once.
+ * A flusher writes the tail only if its own LSN is in the tail;
+ * it can then also wait for a short delay before writing,
+ * so that more committing transactions can join its flush.
+ * <p>
+ * A flush seals the tail that it writes: the next record starts
+ * a new block, so a block is never rewritten once it has been forced.
+ * A crash while a block is being written can therefore tear only
+ * a block that no commit (and no page on disk) depends on,
+ * and such a block marks the end of the log.
+ * <p>
+ * The log is stored in segments of a fixed number of blocks.
+ * Each segment is a file whose name is the name of the log
+ * followed by the number of its first block, such as "simpledb.log.1024";
+ * block numbers (and thus LSNs) keep increasing across segments.
+ * After a checkpoint, the recovery manager calls {@link #truncate(long)}
+ * with the oldest LSN that recovery still needs, and the segments
+ * before it are deleted, or moved to an archive directory.
  * @author Edward Sciore
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
@@ -23,14 +68,34 @@ public class LogMgr implements Iterable<BasicLogRecord> {
    public static final int LAST_POS = 0;
 
    private String logfile;
-   private Page mypage = new Page();
-   private Block currentblk;
+   private int segmentBlocks;
+   private File archiveDir;         // null means that removed segments are deleted
+   private TreeSet<Integer> segments = new TreeSet<Integer>();  // the first block of each segment
+   private FileDictionary files;
+   private LogRecordWriter writer;
+   private Page[] pages;            // block b is held in pages[b % pages.length]
+   private int tailblk;
+   private boolean sealed = false;  // the tail has been written by a flush
    private int currentpos;
+   private int writtenblk;          // the blocks before this one have been written
+   private int forcedblk;           // the blocks before this one have been forced
+   private long flushedLSN;         // the records before this LSN are on disk
+   private boolean flushing = false;
+   private long commitDelay;        // in nanoseconds
 
    /**
-    * Creates the manager for the specified log file.
-    * If the log file does not yet exist, it is created
-    * with an empty first block.
+    * Creates the manager for the specified log.
+    * If the log does not yet exist, its first segment is created
+    * when its first block is written.
+    * A log that is a single file, as written by earlier versions,
+    * becomes the first segment.
+    * If it has no file dictionary, it was written in the
+    * earlier format, whose records were arrays of integers and
+    * strings; such a log must first be recovered by
+    * {@link simpledb.tx.recovery.LegacyRecovery}, and the
+    * constructor throws an exception if it is still there.
+    * If the database has page checksums, a torn block at
+    * the end of the log is removed (see {@link #removeTornBlocks()}).
     * This constructor depends on a {@link FileMgr} object
     * that it gets from the method
     * {@link simpledb.server.SimpleDB#fileMgr()}.
@@ -39,114 +104,411 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * {@link simpledb.server.SimpleDB#initFileMgr(String)}
     * is called first.
     * @param logfile the name of the log file
+    * @param bufferPages the number of pages in the ring of log pages
+    * @param commitDelay the number of microseconds that a flusher
+    * waits for other threads to join its flush; 0 means no delay
+    * @param segmentBlocks the number of blocks in a segment of the log
+    * @param archiveDir the directory in which a subdirectory named after
+    * the database receives the removed segments, or null to delete them
     */
-   public LogMgr(String logfile) {
+   public LogMgr(String logfile, int bufferPages, int commitDelay,
+                 int segmentBlocks, String archiveDir) {
       this.logfile = logfile;
-      int logsize = SimpleDB.fileMgr().size(logfile);
-      if (logsize == 0)
-         appendNewBlock();
+      this.commitDelay = commitDelay * 1000L;
+      this.segmentBlocks = Math.max(1, segmentBlocks);
+      File dir = SimpleDB.fileMgr().directory();
+      if (archiveDir != null) {
+         this.archiveDir = new File(archiveDir, dir.getName());
+         if (!this.archiveDir.exists() && !this.archiveDir.mkdirs())
+            throw new RuntimeException("cannot create " + this.archiveDir);
+      }
+      File dictfile = new File(dir, logfile + ".files");
+      File log = new File(dir, logfile);
+      if (log.length() > 0 && dictfile.exists())
+         rename(log, new File(dir, segmentName(0)));
+      else if (log.length() > 0)
+         throw new RuntimeException("log " + log + " has an earlier format and has not been recovered");
+      else
+         log.delete();
+      for (String filename : dir.list())
+         if (isSegment(logfile, filename))
+            segments.add(Integer.parseInt(filename.substring(logfile.length() + 1)));
+      if (segments.isEmpty())
+         segments.add(0);
+      files = new FileDictionary(dictfile);
+      writer = new LogRecordWriter(files);
+      pages = new Page[Math.max(2, bufferPages)];
+      for (int i=0; i<pages.length; i++)
+         pages[i] = new Page();
+      removeTornBlocks();
+      // the last block of the log is located from the size of the last segment
+      int first = segments.last();
+      String segname = segmentName(first);
+      SimpleDB.fileMgr().setExtentBlocks(segname, 1);
+      int segsize = SimpleDB.fileMgr().size(segname);
+      if (segsize == 0) {
+         tailblk = first;
+         setLastRecordPosition(0);
+         currentpos = INT_SIZE;
+      }
       else {
-         currentblk = new Block(logfile, logsize-1);
-         mypage.read(currentblk);
+         tailblk = first + segsize - 1;
+         tail().read(new Block(segname, segsize - 1));
          currentpos = getLastRecordPosition() + INT_SIZE;
+         sealed = true;
       }
+      writtenblk = sealed ? tailblk + 1 : tailblk;
+      forcedblk = writtenblk;
+      flushedLSN = currentLSN();
    }
 
    /**
-    * Ensures that the log records corresponding to the
+    * Ensures that the log record corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * If the record is in a page before the tail, the pages
+    * are written only as far as that page;
+    * otherwise the tail is written as well, and sealed.
+    * The segments that hold the blocks between the last forced
+    * block and that page are then forced, including blocks
+    * that were written without being forced, when the ring
+    * was full or by {@link #iterator()}.
+    * If another thread is already forcing the log,
+    * the method waits for it to finish, and then either
+    * returns (if that flush included the specified record)
+    * or becomes the next flusher.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= currentLSN())
-         flush();
+   public void flush(long lsn) {
+      boolean interrupted = false;
+      SortedMap<Block,Page> batch = new TreeMap<Block,Page>();
+      Set<String> segnames = new TreeSet<String>();
+      int lastblk;
+      long target;
+      synchronized (this) {
+         while (flushing && lsn >= flushedLSN)
+            interrupted |= await();
+         if (lsn < flushedLSN) {
+            if (interrupted)
+               Thread.currentThread().interrupt();
+            return;
+         }
+         flushing = true;
+         if (lsn / BLOCK_SIZE < tailblk) {
+            lastblk = (int) (lsn / BLOCK_SIZE) + 1;
+            target = (long) lastblk * BLOCK_SIZE;
+            addFullPages(batch, lastblk);
+         }
+         else {
+            interrupted |= awaitCommitters();
+            lastblk = tailblk + 1;
+            target = currentLSN();
+            addFullPages(batch, tailblk);
+            batch.put(block(tailblk), tail());
+            sealed = true;
+         }
+         if (forcedblk < lastblk) {
+            Integer first = segments.floor(forcedblk);
+            if (first == null)
+               first = segments.first();
+            for (int seg : segments.subSet(first, true, lastblk - 1, true))
+               segnames.add(segmentName(seg));
+         }
+      }
+      boolean done = false;
+      try {
+         SimpleDB.fileMgr().write(batch);
+         for (String segname : segnames)
+            SimpleDB.fileMgr().force(segname);
+         done = true;
+      }
+      finally {
+         synchronized (this) {
+            if (done) {
+               writtenblk = Math.max(writtenblk, lastblk);
+               forcedblk = Math.max(forcedblk, lastblk);
+               flushedLSN = Math.max(flushedLSN, target);
+            }
+            flushing = false;
+            notifyAll();
+         }
+         if (interrupted)
+            Thread.currentThread().interrupt();
+      }
    }
 
    /**
     * Returns an iterator for the log records,
     * which will be returned in reverse order starting with the most recent.
+    * The pages of the ring are written (but not forced) first,
+    * so that the iterator can read them from the log file;
+    * a sealed tail is already on disk.
     * @see java.lang.Iterable#iterator()
     */
    public synchronized Iterator<BasicLogRecord> iterator() {
-      flush();
-      return new LogIterator(currentblk);
+      boolean interrupted = false;
+      while (flushing)
+         interrupted |= await();
+      if (interrupted)
+         Thread.currentThread().interrupt();
+      SortedMap<Block,Page> batch = new TreeMap<Block,Page>();
+      addFullPages(batch, tailblk);
+      if (!sealed) {
+         batch.put(block(tailblk), tail());
+         writtenblk = tailblk;
+      }
+      SimpleDB.fileMgr().write(batch);
+      return new LogIterator(this, tailblk, segments.first(), files);
+   }
+   
+   /**
+    * Removes the segments of the log that hold only records
+    * before the specified LSN.
+    * The segment that holds the LSN is kept, and so are
+    * the segments whose blocks have not all been forced.
+    * A removed segment is moved to the archive directory,
+    * together with a copy of the file dictionary that its
+    * records need, or deleted if there is no archive directory.
+    * The recovery manager calls this method after a checkpoint,
+    * with the oldest LSN that recovery would need.
+    * @param lsn the LSN of the oldest record to keep
+    * @return the number of segments removed
+    */
+   public int truncate(long lsn) {
+      List<String> removed = new ArrayList<String>();
+      synchronized (this) {
+         long keepblk = Math.min(lsn / BLOCK_SIZE, forcedblk);
+         while (segments.size() > 1 && segments.higher(segments.first()) <= keepblk) {
+            String segname = segmentName(segments.pollFirst());
+            SimpleDB.fileMgr().close(segname);
+            removed.add(segname);
+         }
+      }
+      for (String segname : removed)
+         removeSegment(segname);
+      return removed.size();
+   }
+   
+   /**
+    * Returns true if the specified file is a segment
+    * of the specified log.
+    * @param logfile the name of the log
+    * @param filename the name of a file
+    * @return true if the file is a segment of the log
+    */
+   public static boolean isSegment(String logfile, String filename) {
+      int start = logfile.length() + 1;
+      if (filename.length() <= start || !filename.startsWith(logfile + "."))
+         return false;
+      for (int i=start; i<filename.length(); i++)
+         if (filename.charAt(i) < '0' || filename.charAt(i) > '9')
+         return false;
+      return true;
    }
 
    /**
     * Appends a log record to the file.
-    * The record contains an arbitrary array of strings and integers.
+    * The record's values are encoded by the log manager's writer,
+    * and then copied into the tail page.
     * The method also writes an integer to the end of each log record whose value
     * is the offset of the corresponding integer for the previous log record.
     * These integers allow log records to be read in reverse order.
-    * @param rec the list of values
-    * @return the LSN of the final value
-    */
-   public synchronized int append(Object[] rec) {
-      int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
-      for (Object obj : rec)
-         recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE){ // the log record doesn't fit,
-         flush();        // so move to the next block.
-         appendNewBlock();
-      }
-      for (Object obj : rec)
-         appendVal(obj);
+    * A record that would not fit in an empty log page
+    * is rejected before the tail moves.
+    * @param rec the object that writes the values of the record
+    * @return the LSN of the record
+    * @throws RuntimeException if the record is larger than a log page
+    */
+   public synchronized long append(LogWritable rec) {
+      writer.reset();
+      rec.writeTo(writer);
+      int recsize = writer.size() + INT_SIZE;  // 4 bytes for the integer that points to the previous log record
+      if (INT_SIZE + recsize >= DATA_SIZE)
+         throw new RuntimeException("log record of " + writer.size() + " bytes does not fit in a log page of "
+                                       + DATA_SIZE + " bytes");
+      if (sealed || currentpos + recsize >= DATA_SIZE) // the tail is sealed or the record doesn't fit,
+         appendNewBlock();                             // so move to the next block.
+      long lsn = currentLSN();
+      tail().setBytes(currentpos, writer.bytes(), writer.size());
+      currentpos += writer.size();
       finalizeRecord();
-      return currentLSN();
+      return lsn;
    }
 
    /**
-    * Adds the specified value to the page at the position denoted by
-    * currentpos.  Then increments currentpos by the size of the value.
-    * @param val the integer or string to be added to the page
+    * Returns the LSN that the next log record will have.
+    * @return the byte offset of the end of the log
     */
-   private void appendVal(Object val) {
-      if (val instanceof String)
-         mypage.setString(currentpos, (String)val);
-      else
-         mypage.setInt(currentpos, (Integer)val);
-      currentpos += size(val);
+   public synchronized long currentLSN() {
+      return (long) tailblk * BLOCK_SIZE + currentpos;
    }
-
+   
    /**
-    * Calculates the size of the specified integer or string.
-    * @param val the value
-    * @return the size of the value, in bytes
+    * Returns the segment block that holds the specified block of the log.
+    * @param blknum the number of a block of the log
+    * @return the corresponding block of its segment
     */
-   private int size(Object val) {
-      if (val instanceof String) {
-         String sval = (String) val;
-         return STR_SIZE(sval.length());
-      }
-      else
-         return INT_SIZE;
+   synchronized Block block(int blknum) {
+      Integer first = segments.floor(blknum);
+      if (first == null)
+         throw new RuntimeException("log block " + blknum + " has been truncated");
+      return new Block(segmentName(first), blknum - first);
+   }
+   
+   private String segmentName(int first) {
+      return logfile + "." + first;
    }
 
    /**
-    * Returns the LSN of the most recent log record.
-    * As implemented, the LSN is the block number where the record is stored.
-    * Thus every log record in a block has the same LSN.
-    * @return the LSN of the most recent log record
+    * Returns the page that records are appended to.
     */
-   private int currentLSN() {
-      return currentblk.number();
+   private Page tail() {
+      return pages[tailblk % pages.length];
    }
 
    /**
-    * Writes the current page to the log file.
+    * Adds the unwritten pages before the specified block to the batch.
+    * @param batch the pages to be written, by block
+    * @param endblk the block after the last page to add
     */
-   private void flush() {
-      mypage.write(currentblk);
+   private void addFullPages(SortedMap<Block,Page> batch, int endblk) {
+      for (int b=writtenblk; b<endblk; b++)
+         batch.put(block(b), pages[b % pages.length]);
    }
 
    /**
-    * Clear the current page, and append it to the log file.
+    * Moves the tail to the next block, which is cleared.
+    * This happens when the tail is full or sealed.
+    * If the page of that block still holds an unwritten block,
+    * the method waits for the current flush, or
+    * writes the full pages itself if there is none.
+    * If the last segment is full, the block
+    * begins a new segment.
     */
    private void appendNewBlock() {
+      boolean interrupted = false;
+      while (tailblk + 1 - writtenblk >= pages.length) {
+         if (flushing)
+            interrupted |= await();
+         else {
+            SortedMap<Block,Page> batch = new TreeMap<Block,Page>();
+            addFullPages(batch, tailblk + 1);
+            SimpleDB.fileMgr().write(batch);
+            writtenblk = tailblk + 1;
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+      tailblk++;
+      sealed = false;
+      if (tailblk - segments.last() >= segmentBlocks) {
+         segments.add(tailblk);
+         SimpleDB.fileMgr().setExtentBlocks(segmentName(tailblk), 1);
+      }
       setLastRecordPosition(0);
       currentpos = INT_SIZE;
-      currentblk = mypage.append(logfile);
+   }
+   
+   /**
+    * Cuts the log back before its first block that fails its checksum,
+    * among the blocks that the last flushes may have been writing:
+    * the blocks of the last segment, and at least a ring of pages
+    * before the end of the log.
+    * Such a block was torn by a crash while it was being written.
+    * Its flush was never completed, and so no commit depends on it
+    * or on the blocks after it.
+    */
+   private void removeTornBlocks() {
+      FileMgr fm = SimpleDB.fileMgr();
+      if (!fm.hasChecksums())
+         return;
+      int last = segments.last();
+      int endblk = last + fm.size(segmentName(last));
+      int startblk = Math.max(segments.first(), Math.min(last, endblk - pages.length));
+      ByteBuffer bb = ByteBuffer.allocateDirect(BLOCK_SIZE);
+      int torn = -1;
+      for (int b=startblk; b<endblk && torn<0; b++)
+         if (!fm.verify(block(b), bb))
+            torn = b;
+      if (torn < 0)
+         return;
+      System.err.println("log block " + torn + " is torn; the log ends before it");
+      File dir = fm.directory();
+      for (int first : new ArrayList<Integer>(segments.tailSet(torn, false))) {
+         fm.close(segmentName(first));
+         if (!new File(dir, segmentName(first)).delete())
+            throw new RuntimeException("cannot delete " + segmentName(first));
+         segments.remove(first);
+      }
+      int first = segments.floor(torn);
+      fm.truncate(segmentName(first), torn - first);
+   }
+   
+   /**
+    * Deletes the specified segment, or moves it to the archive directory.
+    * The file dictionary is copied along with it; as the dictionary
+    * only grows, the copy resolves the ids of every archived segment.
+    */
+   private void removeSegment(String segname) {
+      File dir = SimpleDB.fileMgr().directory();
+      File seg = new File(dir, segname);
+      if (archiveDir == null) {
+         if (!seg.delete())
+            throw new RuntimeException("cannot delete " + seg);
+         return;
+      }
+      try {
+         Files.move(seg.toPath(), new File(archiveDir, segname).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+         String dictname = logfile + ".files";
+         Files.copy(new File(dir, dictname).toPath(), new File(archiveDir, dictname).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot archive " + seg);
+      }
+   }
+   
+   private static void rename(File from, File to) {
+      if (!from.renameTo(to))
+         throw new RuntimeException("cannot rename " + from);
+   }
+
+   /**
+    * Waits for the current flush to finish.
+    * @return true if the thread was interrupted while waiting
+    */
+   private boolean await() {
+      try {
+         wait();
+         return false;
+      }
+      catch (InterruptedException e) {
+         return true;
+      }
+   }
+
+   /**
+    * Waits for the commit delay, releasing the lock of the log manager
+    * so that other threads can append their records
+    * and join the current flush.
+    * @return true if the thread was interrupted while waiting
+    */
+   private boolean awaitCommitters() {
+      if (commitDelay <= 0)
+         return false;
+      long deadline = System.nanoTime() + commitDelay;
+      long remaining = commitDelay;
+      while (remaining > 0) {
+         try {
+            wait(remaining / 1000000, (int) (remaining % 1000000));
+         }
+         catch (InterruptedException e) {
+            return true;
+         }
+         remaining = deadline - System.nanoTime();
+      }
+      return false;
    }
 
    /**
@@ -157,16 +519,16 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * is the offset of the integer for the last log record in the page.
     */
    private void finalizeRecord() {
-      mypage.setInt(currentpos, getLastRecordPosition());
+      tail().setInt(currentpos, getLastRecordPosition());
       setLastRecordPosition(currentpos);
       currentpos += INT_SIZE;
    }
 
    private int getLastRecordPosition() {
-      return mypage.getInt(LAST_POS);
+      return tail().getInt(LAST_POS);
    }
 
    private void setLastRecordPosition(int pos) {
-      mypage.setInt(LAST_POS, pos);
+      tail().setInt(LAST_POS, pos);
    }
 }
@@ -0,0 +1,124 @@
+package simpledb.log;
+
+import java.nio.charset.Charset;
+
+/**
+ * A class that encodes the values of a log record into bytes.
+ * It is the counterpart of {@link BasicLogRecord},
+ * which reads the values back in the same order.
+ * Integers are written in a variable-length format:
+ * they are zigzag-encoded, so that small negative numbers are small too,
+ * and written seven bits per byte, so that the transaction ids,
+ * offsets and values that fill most log records take one to three bytes.
+ * Strings are written as their UTF-8 length and bytes.
+ * File names are written as their ids in the log's
+ * {@link FileDictionary file dictionary}, instead of repeating the name.
+ * <p>
+ * The log manager has a single writer, which it reuses for every record,
+ * so encoding a record does not allocate
+ * (except for strings that are not ASCII).
+ */
+public class LogRecordWriter {
+   static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private byte[] buf = new byte[256];
+   private int size = 0;
+   private FileDictionary files;
+
+   /**
+    * Creates a writer whose file names are
+    * looked up in the specified dictionary.
+    * This constructor is called exclusively by the log manager.
+    * @param files the file dictionary of the log
+    */
+   LogRecordWriter(FileDictionary files) {
+      this.files = files;
+   }
+
+   /**
+    * Writes an integer.
+    * @param val the integer
+    */
+   public void writeInt(int val) {
+      writeLong(val);
+   }
+
+   /**
+    * Writes a long integer.
+    * @param val the long integer
+    */
+   public void writeLong(long val) {
+      writeUnsigned((val << 1) ^ (val >> 63));
+   }
+
+   /**
+    * Writes a string.
+    * @param val the string
+    */
+   public void writeString(String val) {
+      int len = val.length();
+      for (int i=0; i<len; i++) {
+         if (val.charAt(i) >= 0x80) {
+            byte[] bytes = val.getBytes(UTF8);
+            writeUnsigned(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+            return;
+         }
+      }
+      writeUnsigned(len);
+      ensure(len);
+      for (int i=0; i<len; i++)
+         buf[size++] = (byte) val.charAt(i);
+   }
+
+   /**
+    * Writes the name of a file, as its id in the file dictionary.
+    * @param filename the name of the file
+    */
+   public void writeFile(String filename) {
+      writeInt(files.id(filename));
+   }
+
+   /**
+    * Clears the writer for the next record.
+    */
+   void reset() {
+      size = 0;
+   }
+
+   /**
+    * Returns the number of bytes written since the last reset.
+    * @return the size of the encoded record
+    */
+   int size() {
+      return size;
+   }
+
+   /**
+    * Returns the array that holds the encoded record
+    * in its first {@link #size()} bytes.
+    * @return the encoded record
+    */
+   byte[] bytes() {
+      return buf;
+   }
+
+   private void writeUnsigned(long val) {
+      ensure(10);
+      while ((val & ~0x7FL) != 0) {
+         buf[size++] = (byte) ((val & 0x7F) | 0x80);
+         val >>>= 7;
+      }
+      buf[size++] = (byte) val;
+   }
+
+   private void ensure(int n) {
+      if (size + n > buf.length) {
+         byte[] newbuf = new byte[Math.max(2 * buf.length, size + n)];
+         System.arraycopy(buf, 0, newbuf, 0, size);
+         buf = newbuf;
+      }
+   }
+}
@@ -0,0 +1,16 @@
+package simpledb.log;
+
+/**
+ * The interface implemented by the objects that can be
+ * appended to the log.
+ * The log manager calls the method {@link #writeTo(LogRecordWriter) writeTo}
+ * while it holds its lock, and copies the values that the object
+ * writes into the log as a single log record.
+ */
+public interface LogWritable {
+   /**
+    * Writes the values of the log record.
+    * @param out the writer that encodes the values
+    */
+   void writeTo(LogRecordWriter out);
+}
@@ -1,6 +1,6 @@
 package simpledb.materialize;
 
-import static simpledb.file.Page.BLOCK_SIZE;
+import static simpledb.file.Page.DATA_SIZE;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -54,7 +54,7 @@ public class MaterializePlan implements Plan {
    public int blocksAccessed() {
       // create a dummy TableInfo object to calculate record length
       TableInfo ti = new TableInfo("", srcplan.schema());
-      double rpb = (double) (BLOCK_SIZE / ti.recordLength());
+      double rpb = (double) (DATA_SIZE / ti.recordLength());
       return (int) Math.ceil(srcplan.recordsOutput() / rpb);
    }
    
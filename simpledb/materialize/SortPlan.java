@@ -141,6 +141,8 @@ public class SortPlan implements Plan {
       src1.close();
       src2.close();
       dest.close();
+      p1.delete();
+      p2.delete();
       return result;
    }
    
@@ -1,5 +1,6 @@
 package simpledb.materialize;
 
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -9,6 +10,9 @@ import simpledb.query.*;
  * A temporary table is not registered in the catalog.
  * The class therefore has a method getTableInfo to return the 
  * table's metadata. 
+ * A temporary table is neither locked nor logged.
+ * Its file is deleted by {@link #delete()} once the table is
+ * no longer needed, or else when its transaction ends.
  * @author Edward Sciore
  */
 public class TempTable {
@@ -26,13 +30,25 @@ public class TempTable {
       String tblname = nextTableName();
       ti = new TableInfo(tblname, sch);
       this.tx = tx;
+      tx.addTempFile(ti.fileName());
    }
    
    /**
     * Opens a table scan for the temporary table.
+    * Temporary tables are written and read sequentially,
+    * so the scan is given its own buffer ring.
     */
    public UpdateScan open() {
-      return new TableScan(ti, tx);
+      return new TableScan(ti, tx, SimpleDB.bufferMgr().newRing());
+   }
+   
+   /**
+    * Deletes the table's file.
+    * The table must not be used afterwards,
+    * and its scans must have been closed.
+    */
+   public void delete() {
+      tx.deleteTempFile(ti.fileName());
    }
    
    /**
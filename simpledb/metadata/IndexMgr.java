@@ -2,6 +2,7 @@ package simpledb.metadata;
 
 import static simpledb.metadata.TableMgr.MAX_NAME;
 import simpledb.tx.Transaction;
+import simpledb.file.Page;
 import simpledb.record.*;
 import java.util.*;
 
@@ -58,9 +59,10 @@ public class IndexMgr {
     */
    public Map<String,IndexInfo> getIndexInfo(String tblname, Transaction tx) {
       Map<String,IndexInfo> result = new HashMap<String,IndexInfo>();
+      byte[] key = Page.encode(tblname);
       RecordFile rf = new RecordFile(ti, tx);
       while (rf.next())
-         if (rf.getString("tablename").equals(tblname)) {
+         if (rf.compareString("tablename", key) == 0) {
          String idxname = rf.getString("indexname");
          String fldname = rf.getString("fieldname");
          IndexInfo ii = new IndexInfo(idxname, tblname, fldname, tx);
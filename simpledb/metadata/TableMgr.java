@@ -1,6 +1,7 @@
 package simpledb.metadata;
 
 import simpledb.tx.Transaction;
+import simpledb.file.Page;
 import simpledb.record.*;
 import java.util.*;
 
@@ -85,10 +86,11 @@ public class TableMgr {
     * @return the table's stored metadata
     */
    public TableInfo getTableInfo(String tblname, Transaction tx) {
+      byte[] key = Page.encode(tblname);
       RecordFile tcatfile = new RecordFile(tcatInfo, tx);
       int reclen = -1;
       while (tcatfile.next())
-         if(tcatfile.getString("tblname").equals(tblname)) {
+         if(tcatfile.compareString("tblname", key) == 0) {
          reclen = tcatfile.getInt("reclength");
          break;
       }
@@ -98,7 +100,7 @@ public class TableMgr {
       Schema sch = new Schema();
       Map<String,Integer> offsets = new HashMap<String,Integer>();
       while (fcatfile.next())
-         if (fcatfile.getString("tblname").equals(tblname)) {
+         if (fcatfile.compareString("tblname", key) == 0) {
          String fldname = fcatfile.getString("fldname");
          int fldtype    = fcatfile.getInt("type");
          int fldlen     = fcatfile.getInt("length");
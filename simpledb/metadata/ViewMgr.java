@@ -1,5 +1,6 @@
 package simpledb.metadata;
 
+import simpledb.file.Page;
 import simpledb.record.*;
 import simpledb.tx.Transaction;
 
@@ -29,9 +30,10 @@ class ViewMgr {
    public String getViewDef(String vname, Transaction tx) {
       String result = null;
       TableInfo ti = tblMgr.getTableInfo("viewcat", tx);
+      byte[] key = Page.encode(vname);
       RecordFile rf = new RecordFile(ti, tx);
       while (rf.next())
-         if (rf.getString("viewname").equals(vname)) {
+         if (rf.compareString("viewname", key) == 0) {
          result = rf.getString("viewdef");
          break;
       }
@@ -6,6 +6,10 @@ import simpledb.server.SimpleDB;
  * A class containing static methods,
  * which estimate the optimal number of buffers
  * to allocate for a scan.
+ * The pool is divided into stripes, and the blocks of a chunk
+ * can all fall in the same stripe, so the number of available
+ * buffers is that of the stripe with the fewest
+ * (see {@link simpledb.buffer.BufferMgr#stripeAvailable()}).
  * @author Edward Sciore
  */
 public class BufferNeeds {
@@ -19,7 +23,7 @@ public class BufferNeeds {
     * @return the highest number less than the number of available buffers, that is a root of the plan's output size
     */
    public static int bestRoot(int size) {
-      int avail = SimpleDB.bufferMgr().available();
+      int avail = SimpleDB.bufferMgr().stripeAvailable();
       if (avail <= 1)
          return 1;
       int k = Integer.MAX_VALUE;
@@ -40,7 +44,7 @@ public class BufferNeeds {
     * @return the highest number less than the number of available buffers, that is a factor of the plan's output size
     */
    public static int bestFactor(int size) {
-      int avail = SimpleDB.bufferMgr().available();
+      int avail = SimpleDB.bufferMgr().stripeAvailable();
       if (avail <= 1)
          return 1;
       int k = size;
@@ -4,6 +4,7 @@ import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 
 import java.util.ArrayList;
@@ -25,8 +26,9 @@ public class ChunkScan implements Scan {
     * @param startbnum the starting block number
     * @param endbnum  the ending block number
     * @param tx the current transaction
+    * @param ring the buffer ring shared by successive chunks, or null
     */ 
-   public ChunkScan(TableInfo ti, int startbnum, int endbnum, Transaction tx) {
+   public ChunkScan(TableInfo ti, int startbnum, int endbnum, Transaction tx, BufferRing ring) {
       pages = new ArrayList<RecordPage>();
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
@@ -34,7 +36,7 @@ public class ChunkScan implements Scan {
       String filename = ti.fileName();
       for (int i=startbnum; i<=endbnum; i++) {
          Block blk = new Block(filename, i);
-         pages.add(new RecordPage(blk, ti, tx));
+         pages.add(new RecordPage(blk, ti, tx, ring));
       }
       beforeFirst();
    }
@@ -60,7 +60,7 @@ public class MultiBufferProductPlan implements Plan {
     */
    public int blocksAccessed() {
       // this guesses at the # of chunks
-      int avail = SimpleDB.bufferMgr().available();
+      int avail = Math.max(1, SimpleDB.bufferMgr().stripeAvailable());
       int size = new MaterializePlan(rhs, tx).blocksAccessed();
       int numchunks = size / avail;
       return rhs.blocksAccessed() +
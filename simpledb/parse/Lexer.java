@@ -19,6 +19,7 @@ public class Lexer {
       initKeywords();
       tok = new StreamTokenizer(new StringReader(s));
       tok.ordinaryChar('.');
+      tok.wordChars('_', '_');  //ids such as sys_buffers
       tok.lowerCaseMode(true); //ids and keywords are converted
       nextToken();
    }
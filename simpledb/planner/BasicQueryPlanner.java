@@ -14,7 +14,8 @@ public class BasicQueryPlanner implements QueryPlanner {
    
    /**
     * Creates a query plan as follows.  It first takes
-    * the product of all tables and views; it then selects on the predicate;
+    * the product of all tables and views (including the virtual
+    * table {@link BufferStatsPlan sys_buffers}); it then selects on the predicate;
     * and finally it projects on the field list. 
     */
    public Plan createPlan(QueryData data, Transaction tx) {
@@ -22,7 +23,9 @@ public class BasicQueryPlanner implements QueryPlanner {
       List<Plan> plans = new ArrayList<Plan>();
       for (String tblname : data.tables()) {
          String viewdef = SimpleDB.mdMgr().getViewDef(tblname, tx);
-         if (viewdef != null)
+         if (tblname.equals(BufferStatsPlan.TABLE_NAME))
+            plans.add(new BufferStatsPlan());
+         else if (viewdef != null)
             plans.add(SimpleDB.planner().createQueryPlan(viewdef, tx));
          else
             plans.add(new TablePlan(tblname, tx));
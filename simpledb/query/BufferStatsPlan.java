@@ -0,0 +1,67 @@
+package simpledb.query;
+
+import simpledb.server.SimpleDB;
+import simpledb.record.Schema;
+
+/** The Plan class corresponding to the virtual table sys_buffers,
+  * which has one record for each file whose blocks have been
+  * pinned, holding the buffer statistics of that file.
+  * The table is not stored on disk; its records are
+  * computed by the buffer manager when the plan is opened.
+  */
+public class BufferStatsPlan implements Plan {
+   public static final String TABLE_NAME = "sys_buffers";
+   private static final int MAX_FILENAME = 40;
+   private Schema sch = new Schema();
+   
+   /**
+    * Creates a leaf node in the query tree corresponding
+    * to the sys_buffers table.
+    */
+   public BufferStatsPlan() {
+      sch.addStringField("filename", MAX_FILENAME);
+      sch.addIntField("hits");
+      sch.addIntField("misses");
+      sch.addIntField("evictions");
+      sch.addIntField("dirtyevictions");
+      sch.addIntField("waitms");
+      sch.addIntField("aborts");
+   }
+   
+   /**
+    * Creates a scan of the current buffer statistics.
+    * @see simpledb.query.Plan#open()
+    */
+   public Scan open() {
+      return new BufferStatsScan(SimpleDB.bufferMgr().fileStats());
+   }
+   
+   /**
+    * The table is held in memory, so no blocks are accessed.
+    * @see simpledb.query.Plan#blocksAccessed()
+    */
+   public int blocksAccessed() {
+      return 0;
+   }
+   
+   /**
+    * Returns the number of files that have statistics.
+    * @see simpledb.query.Plan#recordsOutput()
+    */
+   public int recordsOutput() {
+      return SimpleDB.bufferMgr().fileStats().size();
+   }
+   
+   /**
+    * Estimates the number of distinct field values,
+    * which is the number of records.
+    * @see simpledb.query.Plan#distinctValues(java.lang.String)
+    */
+   public int distinctValues(String fldname) {
+      return recordsOutput();
+   }
+   
+   public Schema schema() {
+      return sch;
+   }
+}
@@ -0,0 +1,76 @@
+package simpledb.query;
+
+import simpledb.buffer.BufferStats;
+import java.util.List;
+
+/**
+ * The scan class corresponding to the virtual table sys_buffers.
+ * It iterates through a snapshot of the buffer statistics,
+ * taken when the scan was opened.
+ * Counts that exceed the range of an int are reported
+ * as Integer.MAX_VALUE.
+ */
+public class BufferStatsScan implements Scan {
+   private List<BufferStats> stats;
+   private int current = -1;
+   
+   /**
+    * Creates a scan of the specified statistics.
+    * @param stats the statistics of each file
+    */
+   public BufferStatsScan(List<BufferStats> stats) {
+      this.stats = stats;
+   }
+   
+   public void beforeFirst() {
+      current = -1;
+   }
+   
+   public boolean next() {
+      current++;
+      return current < stats.size();
+   }
+   
+   public void close() {}
+   
+   public Constant getVal(String fldname) {
+      if (fldname.equals("filename"))
+         return new StringConstant(getString(fldname));
+      else
+         return new IntConstant(getInt(fldname));
+   }
+   
+   public int getInt(String fldname) {
+      BufferStats s = stats.get(current);
+      long val;
+      if (fldname.equals("hits"))
+         val = s.getHits();
+      else if (fldname.equals("misses"))
+         val = s.getMisses();
+      else if (fldname.equals("evictions"))
+         val = s.getEvictions();
+      else if (fldname.equals("dirtyevictions"))
+         val = s.getDirtyEvictions();
+      else if (fldname.equals("waitms"))
+         val = s.getPinWaitMillis();
+      else if (fldname.equals("aborts"))
+         val = s.getAborts();
+      else
+         throw new RuntimeException("field " + fldname + " not found.");
+      return (int) Math.min(val, Integer.MAX_VALUE);
+   }
+   
+   public String getString(String fldname) {
+      if (fldname.equals("filename"))
+         return stats.get(current).getFileName();
+      else
+         throw new RuntimeException("field " + fldname + " not found.");
+   }
+   
+   public boolean hasField(String fldname) {
+      return fldname.equals("filename") || fldname.equals("hits")
+            || fldname.equals("misses") || fldname.equals("evictions")
+            || fldname.equals("dirtyevictions") || fldname.equals("waitms")
+            || fldname.equals("aborts");
+   }
+}
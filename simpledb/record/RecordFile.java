@@ -1,12 +1,21 @@
 package simpledb.record;
 
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 
 /**
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * When the record file moves sequentially from one block
+ * to the next, the block is pinned through the file's
+ * buffer ring (if it has one), so that scanning a large file
+ * does not flush the rest of the buffer pool.
+ * Sequential moves also ask the buffer manager to read the
+ * following blocks in the background, so that the scan
+ * seldom has to wait for a read.
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -15,10 +24,14 @@ public class RecordFile {
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private BufferRing ring;
+   private int readAheadEnd = 0;
    
    /**
     * Constructs an object to manage a file of records.
     * If the file does not exist, it is created.
+    * A file that is large relative to the buffer pool
+    * is given a buffer ring.
     * @param ti the table metadata
     * @param tx the transaction
     */
@@ -26,6 +39,26 @@ public class RecordFile {
       this.ti = ti;
       this.tx = tx;
       filename = ti.fileName();
+      int size = tx.size(filename);
+      ring = SimpleDB.bufferMgr().newRing(size);
+      if (size == 0)
+         appendBlock();
+      moveTo(0);
+   }
+   
+   /**
+    * Constructs an object to manage a file of records,
+    * using the specified buffer ring for sequential access.
+    * If the file does not exist, it is created.
+    * @param ti the table metadata
+    * @param tx the transaction
+    * @param ring the buffer ring, or null
+    */
+   public RecordFile(TableInfo ti, Transaction tx, BufferRing ring) {
+      this.ti = ti;
+      this.tx = tx;
+      this.ring = ring;
+      filename = ti.fileName();
       if (tx.size(filename) == 0)
          appendBlock();
       moveTo(0);
@@ -81,6 +114,18 @@ public class RecordFile {
       return rp.getString(fldname);
    }
    
+   /**
+    * Compares the value of the specified field in the current
+    * record with an encoded string, without creating a String.
+    * @param fldname the name of the field
+    * @param val a string encoded by {@link simpledb.file.Page#encode(String)}
+    * @return a negative value, zero, or a positive value as the
+    * stored string is less than, equal to, or greater than val
+    */
+   public int compareString(String fldname, byte[] val) {
+      return rp.compareString(fldname, val);
+   }
+   
    /**
     * Sets the value of the specified field 
     * in the current record.
@@ -146,11 +191,38 @@ public class RecordFile {
    }
    
    private void moveTo(int b) {
+      boolean sequential = (rp != null && b == currentblknum + 1);
+      BufferRing r = sequential ? ring : null;
       if (rp != null)
          rp.close();
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = new RecordPage(blk, ti, tx, r);
+      if (sequential)
+         readAhead();
+   }
+   
+   /**
+    * Requests the blocks following the current one that
+    * have not already been requested.
+    * A scan with a ring reads ahead no further than half the
+    * ring's size, so that the blocks read ahead do not replace
+    * each other in the ring before the scan gets to them.
+    */
+   private void readAhead() {
+      int depth = SimpleDB.bufferMgr().readAheadDepth();
+      if (ring != null) {
+         ring.setPosition(currentblknum);
+         depth = Math.min(depth, ring.size() / 2);
+      }
+      int start = Math.max(currentblknum + 1, readAheadEnd);
+      int end = currentblknum + 1 + depth;
+      if (start >= end)
+         return;
+      end = Math.min(end, tx.size(filename));
+      for (int i=start; i<end; i++)
+         SimpleDB.bufferMgr().readAhead(new Block(filename, i), ring);
+      readAheadEnd = end;
    }
    
    private boolean atLastBlock() {
@@ -159,6 +231,6 @@ public class RecordFile {
    
    private void appendBlock() {
       RecordFormatter fmtr = new RecordFormatter(ti);
-      tx.append(filename, fmtr);
+      tx.append(filename, fmtr, ring);
    }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package simpledb.record;
 
 import static simpledb.file.Page.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
@@ -24,11 +25,22 @@ public class RecordPage {
      * @param tx the transaction performing the operations
      */
    public RecordPage(Block blk, TableInfo ti, Transaction tx) {
+      this(blk, ti, tx, null);
+   }
+   
+   /** Creates the record manager for the specified block,
+     * which is pinned through the specified buffer ring.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     * @param ring the scan's buffer ring, or null
+     */
+   public RecordPage(Block blk, TableInfo ti, Transaction tx, BufferRing ring) {
       this.blk = blk;
       this.ti = ti;
       this.tx = tx;
       slotsize = ti.recordLength() + INT_SIZE;
-      tx.pin(blk);
+      tx.pin(blk, ring);
   }
    
    /**
@@ -71,6 +83,20 @@ public class RecordPage {
       return tx.getString(blk, position);
    }
    
+   /**
+    * Compares the string value stored for the specified field
+    * of the current record with an encoded string,
+    * without creating a String.
+    * @param fldname the name of the field.
+    * @param val a string encoded by {@link simpledb.file.Page#encode(String)}
+    * @return a negative value, zero, or a positive value as the
+    * stored string is less than, equal to, or greater than val
+    */
+   public int compareString(String fldname, byte[] val) {
+      int position = fieldpos(fldname);
+      return tx.compareString(blk, position, val);
+   }
+   
    /**
     * Stores an integer at the specified field
     * of the current record.
@@ -146,7 +172,7 @@ public class RecordPage {
    }
    
    private boolean isValidSlot() {
-      return currentpos() + slotsize <= BLOCK_SIZE;
+      return currentpos() + slotsize <= DATA_SIZE;
    }
    
    private boolean searchFor(int flag) {
@@ -4,7 +4,11 @@ import simpledb.tx.Transaction;
 import simpledb.query.Plan;
 import simpledb.server.SimpleDB;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.rmi.RemoteException;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 
 /**
@@ -13,6 +17,7 @@ import java.rmi.server.UnicastRemoteObject;
  */
 @SuppressWarnings("serial")
 class RemoteStatementImpl extends UnicastRemoteObject implements RemoteStatement {
+   private static final String RESIZE_CMD = "resize buffer pool";
    private RemoteConnectionImpl rconn;
    
    public RemoteStatementImpl(RemoteConnectionImpl rconn) throws RemoteException {
@@ -42,11 +47,21 @@ class RemoteStatementImpl extends UnicastRemoteObject implements RemoteStatement
     * Executes the specified SQL update command.
     * The method sends the command to the update planner,
     * which executes it.
+    * The administrative command "resize buffer pool <i>size</i>"
+    * is handled here instead; it returns the new number of buffers.
+    * The command is for the database administrator only, so it is
+    * accepted only from a client on the server's own host;
+    * a size that {@link simpledb.buffer.BufferMgr#resize(int)}
+    * considers out of range is rejected.
     * @see simpledb.remote.RemoteStatement#executeUpdate(java.lang.String)
     */
    public int executeUpdate(String cmd) throws RemoteException {
       int result;
-      if (cmd.startsWith("undo")) {
+      if (cmd.startsWith(RESIZE_CMD)) {
+         checkLocalClient();
+         String size = cmd.substring(RESIZE_CMD.length());
+         return SimpleDB.bufferMgr().resize(SimpleDB.bufferCount(size));
+      } else if (cmd.startsWith("undo")) {
          result = SimpleDB.planner().executeUndo();
          return result;
       } else if (cmd.startsWith("redo")) {
@@ -71,4 +86,24 @@ class RemoteStatementImpl extends UnicastRemoteObject implements RemoteStatement
          }
       }
    }
+   
+   /**
+    * Throws an exception if the current remote call
+    * comes from a host other than the server's.
+    * A call that is not a remote call is allowed.
+    */
+   private static void checkLocalClient() {
+      try {
+         InetAddress client = InetAddress.getByName(RemoteServer.getClientHost());
+         if (!client.isLoopbackAddress() && !client.equals(InetAddress.getLocalHost()))
+            throw new RuntimeException("the command \"" + RESIZE_CMD
+                                          + "\" is only accepted from the server's host");
+      }
+      catch (ServerNotActiveException e) {
+         // not called through RMI
+      }
+      catch (UnknownHostException e) {
+         throw new RuntimeException("cannot identify the client host");
+      }
+   }
 }
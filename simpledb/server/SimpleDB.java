@@ -1,13 +1,17 @@
 package simpledb.server;
 
-import simpledb.file.FileMgr;
+import simpledb.file.*;
 import simpledb.buffer.*;
 import simpledb.tx.Transaction;
+import simpledb.tx.recovery.LegacyRecovery;
+import simpledb.tx.recovery.RecoveryMgr;
 import simpledb.log.LogMgr;
 import simpledb.metadata.MetadataMgr;
 import simpledb.planner.*;
 import simpledb.opt.HeuristicQueryPlanner;
 import simpledb.index.planner.IndexUpdatePlanner;
+import java.io.File;
+import java.util.List;
 
 /**
  * The class that provides system-wide static global values.
@@ -23,8 +27,26 @@ import simpledb.index.planner.IndexUpdatePlanner;
  * @author Edward Sciore
  */
 public class SimpleDB {
+   public static int BLOCK_SIZE = Page.DEFAULT_BLOCK_SIZE;  // the block size of a new database
    public static int BUFFER_SIZE = 8;
+   public static String BUFFER_POOL_SIZE = null;  // a number of buffers or bytes, such as "64M"; overrides BUFFER_SIZE
+   public static String BUFFER_POLICY = "clock";
+   public static int BUFFER_WRITER_DELAY = 200;  // milliseconds; 0 disables the writer
+   public static int BUFFER_WRITER_PAGES = 64;   // the most pages written per round
+   public static int READ_AHEAD_BLOCKS = 8;      // blocks read ahead of a sequential scan; 0 disables
+   public static int READ_AHEAD_THREADS = 2;
    public static String LOG_FILE = "simpledb.log";
+   public static int LOG_BUFFER_PAGES = 16;      // the pages in the ring of log pages
+   public static boolean COMMIT_FORCES_PAGES = false; // write a transaction's pages at commit, instead of relying on redo
+   public static int LOG_COMMIT_DELAY = 0;       // microseconds a log flush waits for other commits to join it
+   public static int LOG_SEGMENT_BLOCKS = 1024;  // the blocks in a segment of the log
+   public static String LOG_ARCHIVE_DIRECTORY = null; // where removed log segments are kept; null deletes them
+   public static int CHECKPOINT_INTERVAL = 60000; // milliseconds between fuzzy checkpoints; 0 disables them
+   public static boolean PAGE_CHECKSUMS = false; // whether the pages of a new database have checksums
+   public static boolean MAPPED_FILES = false;   // access files through memory mappings
+   public static int FILE_EXTENT_BLOCKS = 64;    // blocks allocated to a file at a time
+   public static String TEMP_DIRECTORY = null;   // where temporary tables are kept; null means the database directory
+   public static String BUFFER_LIST_FILE = "simpledb.buffers";  // null disables warm restart
    
    private static FileMgr     fm;
    private static BufferMgr   bm;
@@ -35,12 +57,21 @@ public class SimpleDB {
    /**
     * Initializes the system.
     * This method is called during system startup.
+    * Once the database is recovered, the blocks that were
+    * in the buffer pool when it was last saved are read
+    * back into the pool in the background,
+    * and periodic checkpoints are started.
     * @param dirname the name of the database directory
     */
    public static void init(String dirname) {
       initFileLogAndBufferMgr(dirname);
-      Transaction tx = new Transaction();
+      List<Block> warmblocks = null;
+      if (BUFFER_LIST_FILE != null)
+         warmblocks = bm.readResidentBlocks(bufferListFile());
       boolean isnew = fm.isNew();
+      if (!isnew)
+         Transaction.startNumbersAfter(RecoveryMgr.lastTxNumber());
+      Transaction tx = new Transaction();
       if (isnew)
          System.out.println("creating new database");
       else {
@@ -52,6 +83,42 @@ public class SimpleDB {
       QueryPlanner  qplanner = new BasicQueryPlanner();
       UpdatePlanner uplanner = new BasicUpdatePlanner();
       mainPlanner = new Planner(qplanner, uplanner);
+      if (warmblocks != null)
+         bm.prefetch(warmblocks);
+      if (CHECKPOINT_INTERVAL > 0)
+         RecoveryMgr.startCheckpoints(CHECKPOINT_INTERVAL);
+   }
+   
+   /**
+    * Shuts down the system cleanly.
+    * The checkpoint thread, the background writer and
+    * the read-ahead threads are stopped,
+    * the list of blocks in the buffer pool is saved
+    * for the next startup, and the space allocated to files
+    * beyond their last blocks is released.
+    * This method is called by a shutdown hook
+    * that the server installs at startup.
+    */
+   public static void shutdown() {
+      RecoveryMgr.stopCheckpoints();
+      bm.stopWriter();
+      bm.stopReadAhead();
+      saveBufferList();
+      fm.trim();
+   }
+   
+   /**
+    * Saves the list of blocks currently in the buffer pool,
+    * so that the next startup can read them back in.
+    * This method is called at clean shutdown and at checkpoints.
+    */
+   public static void saveBufferList() {
+      if (BUFFER_LIST_FILE != null && bm != null)
+         bm.saveResidentBlocks(bufferListFile());
+   }
+   
+   private static File bufferListFile() {
+      return new File(fm.directory(), BUFFER_LIST_FILE);
    }
    
    // The following initialization methods are useful for 
@@ -63,16 +130,22 @@ public class SimpleDB {
     * @param dirname the name of the database directory
     */
    public static void initFileMgr(String dirname) {
-      fm = new FileMgr(dirname);
+      fm = new FileMgr(dirname, BLOCK_SIZE, PAGE_CHECKSUMS, MAPPED_FILES,
+                        FILE_EXTENT_BLOCKS, TEMP_DIRECTORY);
+      fm.releaseExtents();
    }
    
    /**
     * Initializes the file and log managers.
+    * A log in the format of earlier versions is
+    * recovered first, and a new log is started.
     * @param dirname the name of the database directory
     */
    public static void initFileAndLogMgr(String dirname) {
       initFileMgr(dirname);
-      logm = new LogMgr(LOG_FILE);
+      LegacyRecovery.recover(LOG_FILE);
+      logm = new LogMgr(LOG_FILE, LOG_BUFFER_PAGES, LOG_COMMIT_DELAY,
+                        LOG_SEGMENT_BLOCKS, LOG_ARCHIVE_DIRECTORY);
    }
    
    /**
@@ -81,7 +154,14 @@ public class SimpleDB {
     */
    public static void initFileLogAndBufferMgr(String dirname) {
       initFileAndLogMgr(dirname);
-      bm = new BufferMgr(BUFFER_SIZE);
+      if (BUFFER_POOL_SIZE != null)
+         BUFFER_SIZE = bufferCount(BUFFER_POOL_SIZE);
+      bm = new BufferMgr(BUFFER_SIZE, BUFFER_POLICY);
+      bm.registerMBean();
+      if (BUFFER_WRITER_DELAY > 0)
+         bm.startWriter(BUFFER_WRITER_DELAY, BUFFER_WRITER_PAGES);
+      if (READ_AHEAD_BLOCKS > 0)
+         bm.startReadAhead(READ_AHEAD_THREADS, READ_AHEAD_BLOCKS);
    }
    
    /**
@@ -94,6 +174,40 @@ public class SimpleDB {
       mdm = new MetadataMgr(isnew, tx);
    }
    
+   /**
+    * Converts a buffer pool size into a number of buffers.
+    * The size is either a number of buffers (such as "1000"),
+    * or a number of bytes followed by K, M or G (such as "64M").
+    * A number of bytes depends on the database's block size,
+    * so this method cannot be called before the file manager
+    * is initialized.
+    * Whether the pool can have that many buffers is checked
+    * by the buffer manager.
+    * @param size the size of the buffer pool
+    * @return the corresponding number of buffers
+    * @throws RuntimeException if the size is not a number
+    * of buffers or of bytes
+    */
+   public static int bufferCount(String size) {
+      String s = size.trim().toUpperCase();
+      long multiplier = 0;
+      if (s.endsWith("K"))
+         multiplier = 1L << 10;
+      else if (s.endsWith("M"))
+         multiplier = 1L << 20;
+      else if (s.endsWith("G"))
+         multiplier = 1L << 30;
+      try {
+         if (multiplier == 0)
+            return Integer.parseInt(s);
+         long bytes = Long.parseLong(s.substring(0, s.length()-1)) * multiplier;
+         return (int) Math.max(0, Math.min(Integer.MAX_VALUE, bytes / Page.BLOCK_SIZE));
+      }
+      catch (NumberFormatException e) {
+         throw new RuntimeException("bad buffer pool size \"" + size + "\"");
+      }
+   }
+   
    public static FileMgr     fileMgr()   { return fm; }
    public static BufferMgr   bufferMgr() { return bm; }
    public static LogMgr      logMgr()    { return logm; }
@@ -5,9 +5,19 @@ import java.rmi.registry.*;
 
 public class Startup {
    public static void main(String args[]) throws Exception {
-      // configure and initialize the database
+      // configure and initialize the database;
+      // the optional second argument is the buffer pool size
+      if (args.length > 1)
+         SimpleDB.BUFFER_POOL_SIZE = args[1];
       SimpleDB.init(args[0]);
       
+      // save the buffer pool's contents when the server is stopped
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run() {
+            SimpleDB.shutdown();
+         }
+      });
+      
       // create a registry specific for the server on the default port
       Registry reg = LocateRegistry.createRegistry(1099);
       
@@ -0,0 +1,98 @@
+package simpledb.server;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A tool that verifies the page checksums of a database,
+ * for example after a crash, to find torn or corrupted pages.
+ * The data files and the log segments are divided into chunks of blocks,
+ * which are verified in parallel by a pool of threads.
+ * The tool should be run while the server is stopped.
+ * <p>
+ * Usage: <code>java simpledb.server.VerifyPages dbname [threads]</code>
+ * <p>
+ * The tool lists the blocks whose checksums do not match,
+ * and exits with status 1 if there are any.
+ */
+public class VerifyPages {
+   private static final int CHUNK_BLOCKS = 1024;
+
+   public static void main(String args[]) throws Exception {
+      if (args.length < 1) {
+         System.out.println("usage: java simpledb.server.VerifyPages dbname [threads]");
+         System.exit(2);
+      }
+      String dbname = args[0];
+      int numthreads = (args.length > 1) ? Integer.parseInt(args[1])
+                                         : Runtime.getRuntime().availableProcessors();
+      if (!new File(System.getProperty("user.home"), dbname).exists()) {
+         System.out.println("no database " + dbname);
+         System.exit(2);
+      }
+      final FileMgr fm = new FileMgr(dbname);
+      if (!fm.hasChecksums()) {
+         System.out.println("database " + dbname + " has no page checksums");
+         return;
+      }
+
+      long start = System.currentTimeMillis();
+      List<Callable<List<Block>>> chunks = new ArrayList<Callable<List<Block>>>();
+      int numfiles = 0;
+      long numblocks = 0;
+      for (String filename : fm.directory().list()) {
+         if (FileMgr.isTempFile(filename)
+               || (!filename.endsWith(".tbl") && !LogMgr.isSegment(SimpleDB.LOG_FILE, filename)))
+            continue;
+         numfiles++;
+         int size = fm.size(filename);
+         numblocks += size;
+         for (int first=0; first<size; first+=CHUNK_BLOCKS)
+            chunks.add(verifyChunk(fm, filename, first, Math.min(size, first+CHUNK_BLOCKS)));
+      }
+
+      ExecutorService pool = Executors.newFixedThreadPool(numthreads);
+      List<Block> bad = new ArrayList<Block>();
+      try {
+         for (Future<List<Block>> f : pool.invokeAll(chunks))
+            bad.addAll(f.get());
+      }
+      finally {
+         pool.shutdown();
+      }
+
+      Collections.sort(bad);
+      for (Block blk : bad)
+         System.out.println("bad checksum: " + blk);
+      long elapsed = System.currentTimeMillis() - start;
+      System.out.println("verified " + numblocks + " blocks in " + numfiles
+                            + " files with " + numthreads + " threads in "
+                            + elapsed + " ms: " + bad.size() + " bad blocks");
+      if (!bad.isEmpty())
+         System.exit(1);
+   }
+
+   /**
+    * Creates a task that verifies the blocks of a file
+    * in the specified range, and returns the bad ones.
+    */
+   private static Callable<List<Block>> verifyChunk(final FileMgr fm, final String filename,
+                                                    final int first, final int end) {
+      return new Callable<List<Block>>() {
+         public List<Block> call() {
+            ByteBuffer bb = ByteBuffer.allocateDirect(Page.BLOCK_SIZE);
+            List<Block> bad = new ArrayList<Block>();
+            for (int blknum=first; blknum<end; blknum++) {
+               Block blk = new Block(filename, blknum);
+               if (!fm.verify(blk, bb))
+                  bad.add(blk);
+            }
+            return bad;
+         }
+      };
+   }
+}
@@ -28,9 +28,10 @@ class BufferList {
    /**
     * Pins the block and keeps track of the buffer internally.
     * @param blk a reference to the disk block
+    * @param ring the caller's buffer ring, or null
     */
-   void pin(Block blk) {
-      Buffer buff = bufferMgr.pin(blk);
+   void pin(Block blk, BufferRing ring) {
+      Buffer buff = bufferMgr.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
    }
@@ -40,10 +41,11 @@ class BufferList {
     * and pins it.
     * @param filename the name of the file
     * @param fmtr the formatter used to initialize the new page
+    * @param ring the caller's buffer ring, or null
     * @return a reference to the newly-created block
     */
-   Block pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = bufferMgr.pinNew(filename, fmtr);
+   Block pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = bufferMgr.pinNew(filename, fmtr, ring);
       Block blk = buff.block();
       buffers.put(blk, buff);
       pins.add(blk);
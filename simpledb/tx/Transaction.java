@@ -5,6 +5,7 @@ import simpledb.file.Block;
 import simpledb.buffer.*;
 import simpledb.tx.recovery.RecoveryMgr;
 import simpledb.tx.concurrency.ConcurrencyMgr;
+import java.util.*;
 
 /**
  * Provides transaction management for clients,
@@ -20,6 +21,7 @@ public class Transaction {
    private ConcurrencyMgr concurMgr;
    private int txnum;
    private BufferList myBuffers = new BufferList();
+   private Set<String> tempFiles = new HashSet<String>();
    
    /**
     * Creates a new transaction and its associated 
@@ -54,6 +56,7 @@ public class Transaction {
          return;
       recoveryMgr.commit();
       concurMgr.release();
+      deleteTempFiles();
       System.out.println("transaction " + txnum + " committed");
    }
    
@@ -68,6 +71,7 @@ public class Transaction {
       recoveryMgr.rollback();
       concurMgr.release();
       myBuffers.unpinAll();
+      deleteTempFiles();
       System.out.println("transaction " + txnum + " rolled back");
    }
    
@@ -90,7 +94,18 @@ public class Transaction {
     * @param blk a reference to the disk block
     */
    public void pin(Block blk) {
-      myBuffers.pin(blk);
+      myBuffers.pin(blk, null);
+   }
+   
+   /**
+    * Pins the specified block on behalf of a sequential scan.
+    * If the block is not in the buffer pool,
+    * it is read into a buffer of the scan's ring.
+    * @param blk a reference to the disk block
+    * @param ring the scan's buffer ring, or null
+    */
+   public void pin(Block blk, BufferRing ring) {
+      myBuffers.pin(blk, ring);
    }
    
    /**
@@ -133,6 +148,24 @@ public class Transaction {
       return buff.getString(offset);
    }
    
+   /**
+    * Compares the string value stored at the specified offset
+    * of the specified block with an encoded string, without
+    * creating a String.
+    * The method first obtains an SLock on the block,
+    * then it calls the buffer to compare the value.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param val a string encoded by {@link simpledb.file.Page#encode(String)}
+    * @return a negative value, zero, or a positive value as the
+    * stored string is less than, equal to, or greater than val
+    */
+   public int compareString(Block blk, int offset, byte[] val) {
+      concurMgr.sLock(blk);
+      Buffer buff = myBuffers.getBuffer(blk);
+      return buff.compareString(offset, val);
+   }
+   
    /**
     * Stores an integer at the specified offset 
     * of the specified block.
@@ -149,7 +182,7 @@ public class Transaction {
    public void setInt(Block blk, int offset, int val) {
       concurMgr.xLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setInt(buff, offset, val);
+      long lsn = recoveryMgr.setInt(buff, offset, val);
       buff.setInt(offset, val, txnum, lsn);
    }
    
@@ -169,7 +202,7 @@ public class Transaction {
    public void setString(Block blk, int offset, String val) {
       concurMgr.xLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setString(buff, offset, val);
+      long lsn = recoveryMgr.setString(buff, offset, val);
       buff.setString(offset, val, txnum, lsn);
    }
    
@@ -197,13 +230,67 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
+      return append(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file
+    * on behalf of a sequential writer.
+    * The new block is placed in a buffer of the writer's ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the writer's buffer ring, or null
+    * @return a reference to the newly-created disk block
+    */
+   public Block append(String filename, PageFormatter fmtr, BufferRing ring) {
       Block dummyblk = new Block(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
-      Block blk = myBuffers.pinNew(filename, fmtr);
+      Block blk = myBuffers.pinNew(filename, fmtr, ring);
       unpin(blk);
+      recoveryMgr.append(blk);
       return blk;
    }
    
+   /**
+    * Records that the transaction has created the specified
+    * temporary file, which is deleted when the transaction
+    * commits or rolls back, if it has not been deleted before.
+    * @param filename the name of the temporary file
+    */
+   public void addTempFile(String filename) {
+      tempFiles.add(filename);
+   }
+   
+   /**
+    * Deletes the specified temporary file of the transaction.
+    * Its buffers are discarded first, so that none of
+    * its blocks are written again.
+    * @param filename the name of the temporary file
+    */
+   public void deleteTempFile(String filename) {
+      SimpleDB.bufferMgr().discard(filename);
+      SimpleDB.fileMgr().delete(filename);
+      tempFiles.remove(filename);
+   }
+   
+   private void deleteTempFiles() {
+      for (String filename : new ArrayList<String>(tempFiles))
+         deleteTempFile(filename);
+   }
+   
+   /**
+    * Makes the numbers of new transactions follow the specified number.
+    * At startup, the system calls this method with the highest
+    * transaction number that recovery will read from the log
+    * (see {@link RecoveryMgr#lastTxNumber()}), so that the
+    * transactions of this run, starting with the recovering one,
+    * are not confused with those of an earlier run.
+    * @param txnum the highest transaction number in the log
+    */
+   public static synchronized void startNumbersAfter(int txnum) {
+      nextTxNum = Math.max(nextTxNum, txnum);
+   }
+   
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       System.out.println("new transaction: " + nextTxNum);
@@ -1,6 +1,6 @@
 package simpledb.tx.concurrency;
 
-import simpledb.file.Block;
+import simpledb.file.*;
 import java.util.*;
 
 /**
@@ -9,6 +9,8 @@ import java.util.*;
  * The concurrency manager keeps track of which locks the 
  * transaction currently has, and interacts with the
  * global lock table as needed. 
+ * Blocks of temporary files are never locked, since a
+ * temporary table is private to the query that created it.
  * @author Edward Sciore
  */
 public class ConcurrencyMgr {
@@ -27,6 +29,8 @@ public class ConcurrencyMgr {
     * @param blk a reference to the disk block
     */
    public void sLock(Block blk) {
+      if (FileMgr.isTempFile(blk.fileName()))
+         return;
       if (locks.get(blk) == null) {
          locktbl.sLock(blk);
          locks.put(blk, "S");
@@ -41,6 +45,8 @@ public class ConcurrencyMgr {
     * @param blk a refrence to the disk block
     */
    public void xLock(Block blk) {
+      if (FileMgr.isTempFile(blk.fileName()))
+         return;
       if (!hasXLock(blk)) {
          sLock(blk);
          locktbl.xLock(blk);
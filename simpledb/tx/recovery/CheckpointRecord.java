@@ -1,40 +1,118 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.BasicLogRecord;
+import simpledb.file.*;
+import simpledb.log.*;
+import java.util.*;
 
 /**
  * The CHECKPOINT log record.
+ * Checkpoints are fuzzy: they are taken while transactions run.
+ * A checkpoint records the LSN at which it began,
+ * the transactions that were active, with the LSNs of their
+ * START records, and the dirty page table: the blocks whose
+ * logged modifications had not yet been written, with the LSN
+ * of the first such modification (their recovery LSN).
+ * Recovery need not read the log before the oldest of these LSNs.
+ * <p>
+ * A log record must fit in a log page, so a large checkpoint
+ * is written as several records with the same begin LSN,
+ * of which only the last one is marked as such.
+ * A checkpoint whose last record is missing is ignored.
  * @author Edward Sciore
  */
 class CheckpointRecord implements LogRecord {
-   
    /**
-    * Creates a quiescent checkpoint record.
+    * The most bytes that the values of a record can take,
+    * other than its entries: the operator, the begin LSN,
+    * the flag and the two counts.
     */
-   public CheckpointRecord() {}
-   
+   private static final int HEADER_BYTES = 32;
+
+   /**
+    * The most bytes that an entry can take: a transaction
+    * (its id and LSN) or a dirty page (its file id, block number and LSN).
+    * Integers are encoded in up to 5 bytes, and LSNs in up to 10.
+    */
+   private static final int ENTRY_BYTES = 20;
+
+   private long beginLSN;
+   private boolean last;
+   private Map<Integer,Long> activeTxs;
+   private Map<Block,Long> dirtyPages;
+
+   /**
+    * Creates a checkpoint record.
+    * @param beginLSN the LSN of the end of the log when the checkpoint began
+    * @param last true if this is the last record of the checkpoint
+    * @param activeTxs the active transactions, mapped to the LSNs of their START records
+    * @param dirtyPages the dirty blocks, mapped to their recovery LSNs
+    */
+   public CheckpointRecord(long beginLSN, boolean last,
+                           Map<Integer,Long> activeTxs, Map<Block,Long> dirtyPages) {
+      this.beginLSN = beginLSN;
+      this.last = last;
+      this.activeTxs = activeTxs;
+      this.dirtyPages = dirtyPages;
+   }
+
    /**
-    * Creates a log record by reading no other values 
+    * Creates a log record by reading the begin LSN, the flag,
+    * and the lists of transactions and dirty pages
     * from the basic log record.
     * @param rec the basic log record
     */
-   public CheckpointRecord(BasicLogRecord rec) {}
-   
-   /** 
+   public CheckpointRecord(BasicLogRecord rec) {
+      beginLSN = rec.nextLong();
+      last = rec.nextInt() != 0;
+      activeTxs = new HashMap<Integer,Long>();
+      int numtxs = rec.nextInt();
+      for (int i=0; i<numtxs; i++) {
+         int txnum = rec.nextInt();
+         activeTxs.put(txnum, rec.nextLong());
+      }
+      dirtyPages = new HashMap<Block,Long>();
+      int numpages = rec.nextInt();
+      for (int i=0; i<numpages; i++) {
+         String filename = rec.nextFile();
+         int blknum = rec.nextInt();
+         dirtyPages.put(new Block(filename, blknum), rec.nextLong());
+      }
+   }
+
+   /**
     * Writes a checkpoint record to the log.
     * This log record contains the CHECKPOINT operator,
-    * and nothing else.
-    * @return the LSN of the last log value
+    * followed by the begin LSN, the flag that marks the last record,
+    * the number of active transactions and the id and LSN of each,
+    * and the number of dirty pages and the filename,
+    * block number and recovery LSN of each.
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {CHECKPOINT};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
    }
-   
+
+   public void writeTo(LogRecordWriter out) {
+      out.writeInt(CHECKPOINT);
+      out.writeLong(beginLSN);
+      out.writeInt(last ? 1 : 0);
+      out.writeInt(activeTxs.size());
+      for (Map.Entry<Integer,Long> e : activeTxs.entrySet()) {
+         out.writeInt(e.getKey());
+         out.writeLong(e.getValue());
+      }
+      out.writeInt(dirtyPages.size());
+      for (Map.Entry<Block,Long> e : dirtyPages.entrySet()) {
+         out.writeFile(e.getKey().fileName());
+         out.writeInt(e.getKey().number());
+         out.writeLong(e.getValue());
+      }
+   }
+
    public int op() {
       return CHECKPOINT;
    }
-   
+
    /**
     * Checkpoint records have no associated transaction,
     * and so the method returns a "dummy", negative txid.
@@ -42,14 +120,97 @@ class CheckpointRecord implements LogRecord {
    public int txNumber() {
       return -1; // dummy value
    }
-   
+
    /**
     * Does nothing, because a checkpoint record
     * contains no undo information.
     */
    public void undo(int txnum) {}
-   
+
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+
+   /**
+    * Returns the LSN of the end of the log when the checkpoint began.
+    * The records of a checkpoint all have the same begin LSN.
+    * @return the begin LSN
+    */
+   long beginLSN() {
+      return beginLSN;
+   }
+
+   /**
+    * Returns true if this is the last record of its checkpoint.
+    * @return true if this is the last record
+    */
+   boolean isLast() {
+      return last;
+   }
+
+   /**
+    * Adds the transactions and dirty pages of another
+    * record of the same checkpoint to this one.
+    * @param part another record of the checkpoint
+    */
+   void merge(CheckpointRecord part) {
+      activeTxs.putAll(part.activeTxs);
+      dirtyPages.putAll(part.dirtyPages);
+   }
+
+   /**
+    * Returns the oldest LSN that recovery needs:
+    * the smallest of the begin LSN, the LSNs of the START records
+    * of the active transactions, and the recovery LSNs of the dirty pages.
+    * @return the oldest LSN needed for recovery
+    */
+   long oldestLSN() {
+      long oldest = beginLSN;
+      for (long lsn : activeTxs.values())
+         oldest = Math.min(oldest, lsn);
+      for (long lsn : dirtyPages.values())
+         oldest = Math.min(oldest, lsn);
+      return oldest;
+   }
+
+   /**
+    * Splits the checkpoint into records that each fit in a log page.
+    * Only the last of the records is marked as the last one.
+    * @return the records of the checkpoint, in the order they are written
+    */
+   List<CheckpointRecord> split() {
+      int maxentries = Math.max(1, (Page.DATA_SIZE - 2*Page.INT_SIZE - HEADER_BYTES) / ENTRY_BYTES);
+      List<CheckpointRecord> parts = new ArrayList<CheckpointRecord>();
+      CheckpointRecord part = addPart(parts);
+      for (Map.Entry<Integer,Long> e : activeTxs.entrySet()) {
+         if (part.size() == maxentries)
+            part = addPart(parts);
+         part.activeTxs.put(e.getKey(), e.getValue());
+      }
+      for (Map.Entry<Block,Long> e : dirtyPages.entrySet()) {
+         if (part.size() == maxentries)
+            part = addPart(parts);
+         part.dirtyPages.put(e.getKey(), e.getValue());
+      }
+      part.last = true;
+      return parts;
+   }
+
+   private CheckpointRecord addPart(List<CheckpointRecord> parts) {
+      CheckpointRecord part = new CheckpointRecord(beginLSN, false,
+                                 new HashMap<Integer,Long>(), new HashMap<Block,Long>());
+      parts.add(part);
+      return part;
+   }
+
+   private int size() {
+      return activeTxs.size() + dirtyPages.size();
+   }
+
    public String toString() {
-      return "<CHECKPOINT>";
+      return "<CHECKPOINT " + beginLSN + " " + activeTxs + " "
+            + dirtyPages.size() + " pages" + (last ? "" : " ...") + ">";
    }
 }
@@ -0,0 +1,51 @@
+package simpledb.tx.recovery;
+
+/**
+ * The checkpoint thread.
+ * A daemon thread that periodically takes a fuzzy checkpoint
+ * by calling {@link RecoveryMgr#checkpoint()}, which bounds
+ * both the time that recovery takes and the size of the log.
+ * A checkpoint that fails is reported on the standard error
+ * stream, and the next one is attempted at the next interval;
+ * a failed write of a dirty page leaves the page dirty, so a
+ * transaction that writes it gets the error through the usual path.
+ */
+class Checkpointer extends Thread {
+   private long interval;
+   private volatile boolean stopped = false;
+
+   /**
+    * Creates a checkpoint thread.
+    * @param interval the time between checkpoints, in milliseconds
+    */
+   Checkpointer(long interval) {
+      super("simpledb-checkpointer");
+      this.interval = interval;
+      setDaemon(true);
+   }
+
+   public void run() {
+      while (!stopped) {
+         try {
+            Thread.sleep(interval);
+            RecoveryMgr.checkpoint();
+         }
+         catch (InterruptedException e) {
+            return;
+         }
+         catch (RuntimeException e) {
+            // an I/O error; try again at the next checkpoint
+            System.err.println("checkpointer: checkpoint failed: " + e);
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /**
+    * Stops the thread after its current checkpoint.
+    */
+   void shutdown() {
+      stopped = true;
+      interrupt();
+   }
+}
@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.BasicLogRecord;
+import simpledb.log.*;
 
 /**
  * The COMMIT log record
@@ -29,11 +29,15 @@ class CommitRecord implements LogRecord {
     * Writes a commit record to the log.
     * This log record contains the COMMIT operator,
     * followed by the transaction id.
-    * @return the LSN of the last log value
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {COMMIT, txnum};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+   
+   public void writeTo(LogRecordWriter out) {
+      out.writeInt(COMMIT);
+      out.writeInt(txnum);
    }
    
    public int op() {
@@ -50,6 +54,12 @@ class CommitRecord implements LogRecord {
     */
    public void undo(int txnum) {}
    
+   /**
+    * Does nothing, because a commit record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    public String toString() {
       return "<COMMIT " + txnum + ">";
    }
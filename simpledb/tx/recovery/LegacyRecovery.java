@@ -0,0 +1,91 @@
+package simpledb.tx.recovery;
+
+import static simpledb.tx.recovery.LogRecord.*;
+import static simpledb.file.Page.*;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.server.SimpleDB;
+import java.io.File;
+import java.util.*;
+
+/**
+ * The recovery of a log written in the earlier format,
+ * whose records were arrays of integers and strings
+ * written directly into the log pages.
+ * A log in that format has no file dictionary.
+ * Its update records held only the previous value, and commits
+ * forced the modified pages, so recovery only has to undo the
+ * updates of the unfinished transactions, back to the last
+ * (quiescent) checkpoint.
+ * <p>
+ * The log manager refuses to open such a log;
+ * {@link SimpleDB#initFileAndLogMgr(String)} calls
+ * {@link #recover(String)} before it creates the log manager.
+ */
+public class LegacyRecovery {
+
+   /**
+    * Recovers the database from the specified log, if the log
+    * is in the earlier format, and then renames the log
+    * (with the suffix ".old"), so that a new log is started.
+    * The restored pages are written directly to their files,
+    * which are forced before the log is renamed;
+    * if the system crashes during recovery, the log is
+    * still in place and the recovery is repeated.
+    * @param logfile the name of the log
+    * @return true if the log was in the earlier format
+    */
+   public static boolean recover(String logfile) {
+      FileMgr fm = SimpleDB.fileMgr();
+      File dir = fm.directory();
+      File log = new File(dir, logfile);
+      if (log.length() == 0 || new File(dir, logfile + ".files").exists())
+         return false;
+      System.out.println("recovering the log in the earlier format");
+      Collection<Integer> finishedTxs = new HashSet<Integer>();
+      SortedSet<String> modifiedFiles = new TreeSet<String>();
+      Page logpg = new Page();
+      Page datapg = new Page();
+      scan:
+      for (int blknum=fm.size(logfile)-1; blknum>=0; blknum--) {
+         logpg.read(new Block(logfile, blknum));
+         int currentrec = logpg.getInt(LogMgr.LAST_POS);
+         while (currentrec > 0) {
+            currentrec = logpg.getInt(currentrec);
+            int pos = currentrec + INT_SIZE;
+            int op = logpg.getInt(pos);
+            if (op == CHECKPOINT)
+               break scan;
+            int txnum = logpg.getInt(pos + INT_SIZE);
+            if (op == COMMIT || op == ROLLBACK)
+               finishedTxs.add(txnum);
+            else if ((op == SETINT || op == SETSTRING) && !finishedTxs.contains(txnum)) {
+               pos += 2 * INT_SIZE;
+               String filename = logpg.getString(pos);
+               pos += STR_SIZE(filename.length());
+               if (FileMgr.isTempFile(filename))
+                  continue;
+               Block blk = new Block(filename, logpg.getInt(pos));
+               int offset = logpg.getInt(pos + INT_SIZE);
+               int valpos = pos + 2 * INT_SIZE;
+               datapg.read(blk);
+               if (op == SETINT)
+                  datapg.setInt(offset, logpg.getInt(valpos));
+               else
+                  datapg.setString(offset, logpg.getString(valpos));
+               datapg.write(blk);
+               modifiedFiles.add(filename);
+            }
+         }
+      }
+      for (String filename : modifiedFiles)
+         fm.force(filename);
+      fm.close(logfile);
+      File old = new File(dir, logfile + ".old");
+      old.delete();
+      if (!log.renameTo(old))
+         throw new RuntimeException("cannot rename " + log);
+      System.out.println("log has an earlier format; recovered and renamed to " + old.getName());
+      return true;
+   }
+}
@@ -1,13 +1,17 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.LogMgr;
+import simpledb.log.*;
 import simpledb.server.SimpleDB;
 
 /**
  * The interface implemented by each type of log record.
+ * A log record writes its values to the log through the
+ * {@link LogWritable#writeTo(LogRecordWriter) writeTo} method,
+ * and reads them back in its constructor that takes
+ * a {@link BasicLogRecord}.
  * @author Edward Sciore
  */
-public interface LogRecord {
+public interface LogRecord extends LogWritable {
    /**
     * The six different types of log record
     */
@@ -21,7 +25,7 @@ public interface LogRecord {
     * Writes the record to the log and returns its LSN.
     * @return the LSN of the record in the log
     */
-   int writeToLog();
+   long writeToLog();
    
    /**
     * Returns the log record's type. 
@@ -39,8 +43,19 @@ public interface LogRecord {
    /**
     * Undoes the operation encoded by this log record.
     * The only log record types for which this method
-    * does anything interesting are SETINT and SETSTRING.
+    * does anything interesting are SETINT and SETSTRING,
+    * which restore the previous value and log the restoration
+    * on behalf of the record's own transaction.
     * @param txnum the id of the transaction that is performing the undo.
     */
    void undo(int txnum);
+   
+   /**
+    * Redoes the operation encoded by this log record.
+    * The only log record types for which this method
+    * does anything interesting are SETINT and SETSTRING,
+    * which write the new value again.
+    * @param txnum the id of the transaction that is performing the redo.
+    */
+   void redo(int txnum);
 }
\ No newline at end of file
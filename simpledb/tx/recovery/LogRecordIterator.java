@@ -15,6 +15,7 @@ import simpledb.server.SimpleDB;
  */
 class LogRecordIterator implements Iterator<LogRecord> {
    private Iterator<BasicLogRecord> iter = SimpleDB.logMgr().iterator();
+   private long lsn = -1;
    
    public boolean hasNext() {
       return iter.hasNext();
@@ -31,6 +32,7 @@ class LogRecordIterator implements Iterator<LogRecord> {
     */
    public LogRecord next() {
       BasicLogRecord rec = iter.next();
+      lsn = rec.lsn();
       int op = rec.nextInt();
       switch (op) {
          case CHECKPOINT:
@@ -50,6 +52,15 @@ class LogRecordIterator implements Iterator<LogRecord> {
       }
    } 
    
+   /**
+    * Returns the LSN of the log record
+    * most recently returned by {@link #next()}.
+    * @return the LSN of the current log record
+    */
+   long lsn() {
+      return lsn;
+   }
+   
    public void remove() {
       throw new UnsupportedOperationException();
    }
@@ -1,98 +1,248 @@
 package simpledb.tx.recovery;
 
 import static simpledb.tx.recovery.LogRecord.*;
-import simpledb.file.Block;
+import simpledb.file.*;
 import simpledb.buffer.Buffer;
+import simpledb.log.LogMgr;
 import simpledb.server.SimpleDB;
 import java.util.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * Update records hold both the previous and the new value,
+ * so that recovery can undo the updates of unfinished transactions
+ * and redo the updates of finished ones.
+ * A commit therefore forces only the log; the modified pages
+ * are written later by the buffer manager.
+ * The recovery manager remembers the blocks that its transaction
+ * has modified, so that if {@link SimpleDB#COMMIT_FORCES_PAGES} is set,
+ * committing or rolling back flushes just those blocks
+ * instead of examining the entire buffer pool.
+ * <p>
+ * The recovery managers share a table of the active transactions,
+ * which fuzzy checkpoints record together with the dirty pages
+ * of the buffer pool (see {@link #checkpoint()}).
+ * Recovery starts from the last complete checkpoint,
+ * and the log before the oldest LSN it needs is truncated.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   private static final Map<Integer,Long> activeTxs = new HashMap<Integer,Long>();  // the LSN of each START record
+   private static final Object checkpointLock = new Object();
+   private static long lastCheckpointLSN = -1;
+   private static Checkpointer checkpointer;
+   
    private int txnum;
+   private SortedSet<Block> modifiedBlocks = new TreeSet<Block>();
+   private SortedSet<String> appendedFiles = new TreeSet<String>();
 
    /**
-    * Creates a recovery manager for the specified transaction.
+    * Creates a recovery manager for the specified transaction,
+    * and adds the transaction to the table of active transactions.
+    * The START record is written while holding the table's lock,
+    * so that a checkpoint either lists the transaction or
+    * precedes its START record.
     * @param txnum the ID of the specified transaction
     */
    public RecoveryMgr(int txnum) {
       this.txnum = txnum;
-      new StartRecord(txnum).writeToLog();
+      synchronized (activeTxs) {
+         long lsn = new StartRecord(txnum).writeToLog();
+         activeTxs.put(txnum, lsn);
+      }
    }
 
    /**
     * Writes a commit record to the log, and flushes it to disk.
+    * The modified blocks are not written, because the log
+    * holds their new values.
+    * The files that the transaction appended blocks to are forced first,
+    * because the formatted contents of a new block are not logged.
+    * If {@link SimpleDB#COMMIT_FORCES_PAGES} is set,
+    * the modified blocks are written and forced first as well.
     */
    public void commit() {
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CommitRecord(txnum).writeToLog();
+      if (SimpleDB.COMMIT_FORCES_PAGES)
+         SimpleDB.bufferMgr().flushAll(txnum, modifiedBlocks);
+      forceFiles(SimpleDB.COMMIT_FORCES_PAGES);
+      long lsn = new CommitRecord(txnum).writeToLog();
+      finish();
       SimpleDB.logMgr().flush(lsn);
    }
 
    /**
     * Writes a rollback record to the log, and flushes it to disk.
+    * The undo of each update is logged, so the restored
+    * blocks need not be written either, unless
+    * {@link SimpleDB#COMMIT_FORCES_PAGES} is set.
     */
    public void rollback() {
       doRollback();
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new RollbackRecord(txnum).writeToLog();
+      if (SimpleDB.COMMIT_FORCES_PAGES) {
+         SimpleDB.bufferMgr().flushAll(txnum, modifiedBlocks);
+         forceFiles(true);
+      }
+      long lsn = new RollbackRecord(txnum).writeToLog();
+      finish();
       SimpleDB.logMgr().flush(lsn);
    }
 
    /**
     * Recovers uncompleted transactions from the log,
-    * then writes a quiescent checkpoint record to the log and flushes it.
+    * writes the pages that recovery modified, and takes a checkpoint.
+    * No other transaction is running, so the checkpoint lists only
+    * the recovering transaction, and the log before it is truncated.
+    * The checkpoint flushes the ROLLBACK records of the unfinished
+    * transactions before anything is truncated.
+    * Pages that failed their checksums during redo have been rebuilt
+    * from the log by then, and are written with new checksums.
     */
    public void recover() {
       doRecover();
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CheckpointRecord().writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+      SimpleDB.fileMgr().stopRepair();
+      checkpoint();
+   }
+   
+   /**
+    * Takes a fuzzy checkpoint, while transactions continue to run.
+    * The dirty pages that were already dirty at the previous
+    * checkpoint are written first, so that the part of the log
+    * needed by recovery does not keep growing.
+    * The table of active transactions and the dirty page table
+    * are then collected, the data files are forced (so that the
+    * pages that are no longer dirty are on disk), and the
+    * checkpoint records are written to the log and flushed.
+    * Finally, the log segments before the oldest LSN that
+    * recovery needs are truncated, and the list of blocks in
+    * the buffer pool is saved.
+    * Checkpoints are taken one at a time.
+    * @return the oldest LSN that recovery needs
+    */
+   public static long checkpoint() {
+      synchronized (checkpointLock) {
+         LogMgr logMgr = SimpleDB.logMgr();
+         long beginLSN = logMgr.currentLSN();
+         if (lastCheckpointLSN >= 0)
+            SimpleDB.bufferMgr().writeDirtyPages(lastCheckpointLSN);
+         Map<Integer,Long> txs;
+         synchronized (activeTxs) {
+            txs = new HashMap<Integer,Long>(activeTxs);
+         }
+         CheckpointRecord cp = new CheckpointRecord(beginLSN, true, txs,
+                                                    SimpleDB.bufferMgr().dirtyPages());
+         SimpleDB.fileMgr().forceAll();
+         long lsn = -1;
+         for (CheckpointRecord part : cp.split())
+            lsn = part.writeToLog();
+         logMgr.flush(lsn);
+         long oldest = cp.oldestLSN();
+         logMgr.truncate(oldest);
+         lastCheckpointLSN = beginLSN;
+         SimpleDB.saveBufferList();
+         return oldest;
+      }
+   }
+   
+   /**
+    * Starts a daemon thread that takes a checkpoint periodically.
+    * @param interval the time between checkpoints, in milliseconds
+    */
+   public static synchronized void startCheckpoints(long interval) {
+      if (checkpointer == null) {
+         checkpointer = new Checkpointer(interval);
+         checkpointer.start();
+      }
+   }
+   
+   /**
+    * Stops the checkpoint thread, if it is running.
+    */
+   public static synchronized void stopCheckpoints() {
+      if (checkpointer != null) {
+         checkpointer.shutdown();
+         checkpointer = null;
+      }
+   }
 
+   /**
+    * Notes that the transaction has appended the specified block,
+    * so that its file is forced when the transaction commits.
+    * Blocks of temporary files are ignored.
+    * @param blk the new block
+    */
+   public void append(Block blk) {
+      if (!isTempBlock(blk))
+         appendedFiles.add(blk.fileName());
    }
 
    /**
     * Writes a setint record to the log, and returns its lsn.
-    * Updates to temporary files are not logged; instead, a
-    * "dummy" negative lsn is returned.
+    * Updates to temporary files are not logged, and their blocks
+    * are not flushed at commit, since the files are deleted when the
+    * transaction ends; instead, a "dummy" negative lsn is returned.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
-      int oldval = buff.getInt(offset);
+   public long setInt(Buffer buff, int offset, int newval) {
       Block blk = buff.block();
       if (isTempBlock(blk))
          return -1;
-      else
-         return new SetIntRecord(txnum, blk, offset, oldval).writeToLog();
+      int oldval = buff.getInt(offset);
+      modifiedBlocks.add(blk);
+      return new SetIntRecord(txnum, blk, offset, oldval, newval).writeToLog();
    }
 
    /**
     * Writes a setstring record to the log, and returns its lsn.
-    * Updates to temporary files are not logged; instead, a
-    * "dummy" negative lsn is returned.
+    * Updates to temporary files are not logged, and their blocks
+    * are not flushed at commit, since the files are deleted when the
+    * transaction ends; instead, a "dummy" negative lsn is returned.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
-      String oldval = buff.getString(offset);
+   public long setString(Buffer buff, int offset, String newval) {
       Block blk = buff.block();
       if (isTempBlock(blk))
          return -1;
-      else
-         return new SetStringRecord(txnum, blk, offset, oldval).writeToLog();
+      String oldval = buff.getString(offset);
+      modifiedBlocks.add(blk);
+      return new SetStringRecord(txnum, blk, offset, oldval, newval).writeToLog();
    }
 
+   /**
+    * Forces each file that the transaction appended a block to,
+    * and optionally each file that holds a block it modified.
+    * @param modified whether to force the files of the modified blocks
+    */
+   private void forceFiles(boolean modified) {
+      SortedSet<String> files = new TreeSet<String>(appendedFiles);
+      if (modified)
+         for (Block blk : modifiedBlocks)
+            files.add(blk.fileName());
+      for (String filename : files)
+         SimpleDB.fileMgr().force(filename);
+   }
+   
+   /**
+    * Removes the transaction from the table of active transactions,
+    * once its COMMIT or ROLLBACK record has been written.
+    */
+   private void finish() {
+      synchronized (activeTxs) {
+         activeTxs.remove(txnum);
+      }
+   }
+   
    /**
     * Rolls back the transaction.
     * The method iterates through the log records,
     * calling undo() for each log record it finds
     * for the transaction,
     * until it finds the transaction's START record.
+    * Each undo logs the value that it restores.
     */
    private void doRollback() {
       Iterator<LogRecord> iter = new LogRecordIterator();
@@ -108,30 +258,103 @@ public class RecoveryMgr {
 
    /**
     * Does a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
-    * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * The method reads the log records backwards, noting which
+    * transactions finished, until it reaches the oldest LSN
+    * needed by the last complete checkpoint, or the beginning of the log
+    * (see {@link #recoveryRecords()}).
+    * It then repeats history: it calls redo() on each of the records
+    * in the order they were written, which brings back the updates
+    * that had not reached disk (including the logged undos
+    * of rolled-back transactions).
+    * From then on, the file manager accepts torn pages
+    * (see {@link FileMgr#startRepair()}), which redo rebuilds.
+    * Finally, it calls undo() on each record of an unfinished
+    * transaction, from the most recent to the oldest,
+    * and writes a ROLLBACK record for each of these transactions.
+    * The START record of an unfinished transaction is never
+    * before the oldest LSN, so all of its records are undone.
+    * The compensating records belong to the unfinished transactions,
+    * so once their ROLLBACK records are flushed, a later recovery
+    * repeats the undo instead of reversing it, even if the recovering
+    * transaction itself never commits.
     */
    private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<Integer>();
-      Iterator<LogRecord> iter = new LogRecordIterator();
-      while (iter.hasNext()) {
-         LogRecord rec = iter.next();
-         if (rec.op() == CHECKPOINT)
-            return;
+      Collection<Integer> finishedTxs = new HashSet<Integer>();
+      List<LogRecord> records = recoveryRecords();
+      for (LogRecord rec : records)
          if (rec.op() == COMMIT || rec.op() == ROLLBACK)
             finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
+      SimpleDB.fileMgr().startRepair();
+      for (int i=records.size()-1; i>=0; i--)
+         records.get(i).redo(txnum);
+      Collection<Integer> losers = new LinkedHashSet<Integer>();
+      for (LogRecord rec : records)
+         if (!finishedTxs.contains(rec.txNumber()) && rec.txNumber() != txnum) {
             rec.undo(txnum);
+            losers.add(rec.txNumber());
+         }
+      for (int loser : losers)
+         new RollbackRecord(loser).writeToLog();
+   }
+   
+   /**
+    * Returns the highest transaction number among the log records
+    * that recovery reads, or 0 if there are none.
+    * Recovery tells transactions apart by their numbers,
+    * so at startup the numbers of new transactions
+    * must follow this one (see {@link simpledb.tx.Transaction#startNumbersAfter(int)});
+    * otherwise a transaction of the new run could be taken for
+    * a transaction of an earlier run that has records
+    * in the same part of the log.
+    * @return the highest transaction number that recovery would see
+    */
+   public static int lastTxNumber() {
+      int last = 0;
+      for (LogRecord rec : recoveryRecords())
+         last = Math.max(last, rec.txNumber());
+      return last;
+   }
+   
+   /**
+    * Returns the log records that recovery reads, from the most
+    * recent back to the oldest LSN needed by the last complete
+    * checkpoint, or to the beginning of the log.
+    * The checkpoint records themselves are left out.
+    * The records of a checkpoint follow its begin LSN, so the
+    * checkpoint is complete by the time the method reads past that LSN.
+    * @return the records, most recent first
+    */
+   private static List<LogRecord> recoveryRecords() {
+      List<LogRecord> records = new ArrayList<LogRecord>();
+      CheckpointRecord cp = null;
+      long stop = -1;
+      LogRecordIterator iter = new LogRecordIterator();
+      while (iter.hasNext()) {
+         LogRecord rec = iter.next();
+         long lsn = iter.lsn();
+         if (cp != null && lsn < cp.beginLSN()) {
+            if (stop < 0)
+               stop = cp.oldestLSN();
+            if (lsn < stop)
+               break;
+         }
+         if (rec.op() == CHECKPOINT) {
+            CheckpointRecord part = (CheckpointRecord) rec;
+            if (cp == null && part.isLast())
+               cp = part;
+            else if (cp != null && part.beginLSN() == cp.beginLSN())
+               cp.merge(part);
+            continue;
+         }
+         records.add(rec);
       }
+      return records;
    }
 
    /**
     * Determines whether a block comes from a temporary file or not.
     */
    private boolean isTempBlock(Block blk) {
-      return blk.fileName().startsWith("temp");
+      return FileMgr.isTempFile(blk.fileName());
    }
 }
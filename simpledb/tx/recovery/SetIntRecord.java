@@ -3,10 +3,11 @@ package simpledb.tx.recovery;
 import simpledb.server.SimpleDB;
 import simpledb.buffer.*;
 import simpledb.file.Block;
-import simpledb.log.BasicLogRecord;
+import simpledb.log.*;
 
 class SetIntRecord implements LogRecord {
-   private int txnum, offset, val;
+   private int txnum, offset;
+   private int oldval, newval;
    private Block blk;
 
    /**
@@ -14,26 +15,29 @@ class SetIntRecord implements LogRecord {
     * @param txnum the ID of the specified transaction
     * @param blk the block containing the value
     * @param offset the offset of the value in the block
-    * @param val the new value
+    * @param oldval the value before the modification
+    * @param newval the value after the modification
     */
-   public SetIntRecord(int txnum, Block blk, int offset, int val) {
+   public SetIntRecord(int txnum, Block blk, int offset, int oldval, int newval) {
       this.txnum = txnum;
       this.blk = blk;
       this.offset = offset;
-      this.val = val;
+      this.oldval = oldval;
+      this.newval = newval;
    }
 
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates a log record by reading six other values from the log.
     * @param rec the basic log record
     */
    public SetIntRecord(BasicLogRecord rec) {
       txnum = rec.nextInt();
-      String filename = rec.nextString();
+      String filename = rec.nextFile();
       int blknum = rec.nextInt();
       blk = new Block(filename, blknum);
       offset = rec.nextInt();
-      val = rec.nextInt();
+      oldval = rec.nextInt();
+      newval = rec.nextInt();
    }
 
    /**
@@ -41,13 +45,21 @@ class SetIntRecord implements LogRecord {
     * This log record contains the SETINT operator,
     * followed by the transaction id, the filename, number,
     * and offset of the modified block, and the previous
-    * integer value at that offset.
-    * @return the LSN of the last log value
+    * and new integer values at that offset.
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETINT, txnum, blk.fileName(),
-         blk.number(), offset, val};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+
+   public void writeTo(LogRecordWriter out) {
+      out.writeInt(SETINT);
+      out.writeInt(txnum);
+      out.writeFile(blk.fileName());
+      out.writeInt(blk.number());
+      out.writeInt(offset);
+      out.writeInt(oldval);
+      out.writeInt(newval);
    }
 
    public int op() {
@@ -59,20 +71,44 @@ class SetIntRecord implements LogRecord {
    }
 
    public String toString() {
-      return "<SETINT " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETINT " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
-    * Replaces the specified data value with the value saved in the log record.
+    * Replaces the specified data value with the previous value
+    * saved in the log record.
     * The method pins a buffer to the specified block,
+    * writes a compensating SETINT record for the restoration,
     * calls setInt to restore the saved value
-    * (using a dummy LSN), and unpins the buffer.
+    * (using the LSN of the compensating record), and unpins the buffer.
+    * Because the restoration is logged, the redo pass of recovery
+    * repeats it along with the rest of the history.
+    * The compensating record belongs to the transaction of this record,
+    * even when recovery performs the undo, so that it is never undone
+    * once that transaction's ROLLBACK record is written.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(int txnum) {
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk);
-      buff.setInt(offset, val, txnum, -1);
+      int current = buff.getInt(offset);
+      long lsn = new SetIntRecord(this.txnum, blk, offset, current, oldval).writeToLog();
+      buff.setInt(offset, oldval, txnum, lsn);
+      buffMgr.unpin(buff);
+   }
+
+   /**
+    * Replaces the specified data value with the new value
+    * saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setInt to write the new value
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setInt(offset, newval, txnum, -1);
       buffMgr.unpin(buff);
    }
 }
@@ -3,11 +3,11 @@ package simpledb.tx.recovery;
 import simpledb.server.SimpleDB;
 import simpledb.buffer.*;
 import simpledb.file.Block;
-import simpledb.log.BasicLogRecord;
+import simpledb.log.*;
 
 class SetStringRecord implements LogRecord {
    private int txnum, offset;
-   private String val;
+   private String oldval, newval;
    private Block blk;
    
    /**
@@ -15,26 +15,29 @@ class SetStringRecord implements LogRecord {
     * @param txnum the ID of the specified transaction
     * @param blk the block containing the value
     * @param offset the offset of the value in the block
-    * @param val the new value
+    * @param oldval the value before the modification
+    * @param newval the value after the modification
     */
-   public SetStringRecord(int txnum, Block blk, int offset, String val) {
+   public SetStringRecord(int txnum, Block blk, int offset, String oldval, String newval) {
       this.txnum = txnum;
       this.blk = blk;
       this.offset = offset;
-      this.val = val;
+      this.oldval = oldval;
+      this.newval = newval;
    }
    
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates a log record by reading six other values from the log.
     * @param rec the basic log record
     */
    public SetStringRecord(BasicLogRecord rec) {
       txnum = rec.nextInt();
-      String filename = rec.nextString();
+      String filename = rec.nextFile();
       int blknum = rec.nextInt();
       blk = new Block(filename, blknum);
       offset = rec.nextInt();
-      val = rec.nextString();
+      oldval = rec.nextString();
+      newval = rec.nextString();
    }
    
    /** 
@@ -42,13 +45,21 @@ class SetStringRecord implements LogRecord {
     * This log record contains the SETSTRING operator,
     * followed by the transaction id, the filename, number,
     * and offset of the modified block, and the previous
-    * string value at that offset.
-    * @return the LSN of the last log value
+    * and new string values at that offset.
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETSTRING, txnum, blk.fileName(),
-         blk.number(), offset, val};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+   
+   public void writeTo(LogRecordWriter out) {
+      out.writeInt(SETSTRING);
+      out.writeInt(txnum);
+      out.writeFile(blk.fileName());
+      out.writeInt(blk.number());
+      out.writeInt(offset);
+      out.writeString(oldval);
+      out.writeString(newval);
    }
    
    public int op() {
@@ -60,20 +71,44 @@ class SetStringRecord implements LogRecord {
    }
    
    public String toString() {
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
    
    /** 
-    * Replaces the specified data value with the value saved in the log record.
+    * Replaces the specified data value with the previous value
+    * saved in the log record.
     * The method pins a buffer to the specified block,
+    * writes a compensating SETSTRING record for the restoration,
     * calls setString to restore the saved value
-    * (using a dummy LSN), and unpins the buffer.
+    * (using the LSN of the compensating record), and unpins the buffer.
+    * Because the restoration is logged, the redo pass of recovery
+    * repeats it along with the rest of the history.
+    * The compensating record belongs to the transaction of this record,
+    * even when recovery performs the undo, so that it is never undone
+    * once that transaction's ROLLBACK record is written.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(int txnum) {
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk);
-      buff.setString(offset, val, txnum, -1);
+      String current = buff.getString(offset);
+      long lsn = new SetStringRecord(this.txnum, blk, offset, current, oldval).writeToLog();
+      buff.setString(offset, oldval, txnum, lsn);
+      buffMgr.unpin(buff);
+   }
+   
+   /**
+    * Replaces the specified data value with the new value
+    * saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setString to write the new value
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setString(offset, newval, txnum, -1);
       buffMgr.unpin(buff);
    }
 }
@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.BasicLogRecord;
+import simpledb.log.*;
 
 class StartRecord implements LogRecord {
    private int txnum;
@@ -25,11 +25,15 @@ class StartRecord implements LogRecord {
     * Writes a start record to the log.
     * This log record contains the START operator,
     * followed by the transaction id.
-    * @return the LSN of the last log value
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {START, txnum};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+   
+   public void writeTo(LogRecordWriter out) {
+      out.writeInt(START);
+      out.writeInt(txnum);
    }
    
    public int op() {
@@ -46,6 +50,12 @@ class StartRecord implements LogRecord {
     */
    public void undo(int txnum) {}
    
+   /**
+    * Does nothing, because a start record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    public String toString() {
       return "<START " + txnum + ">";
    }
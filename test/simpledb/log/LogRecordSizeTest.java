@@ -0,0 +1,62 @@
+package simpledb.log;
+
+import simpledb.file.Page;
+import simpledb.server.SimpleDB;
+import java.nio.file.Files;
+
+/**
+ * Checks that the log manager rejects a record that is larger
+ * than a log page, without moving the tail of the log,
+ * and that it goes on accepting records afterwards.
+ * The test creates a scratch database in a temporary directory.
+ * <p>
+ * Usage: <code>java simpledb.log.LogRecordSizeTest</code>
+ * (exits with status 1 if the check fails)
+ */
+public class LogRecordSizeTest {
+   public static void main(String args[]) throws Exception {
+      System.setProperty("user.home", Files.createTempDirectory("simpledb").toString());
+      SimpleDB.initFileAndLogMgr("logsizetest");
+      LogMgr logMgr = SimpleDB.logMgr();
+
+      logMgr.append(stringRecord(10));
+      long lsn = logMgr.currentLSN();
+      try {
+         logMgr.append(stringRecord(Page.DATA_SIZE));
+         fail("a record larger than a page was appended");
+      }
+      catch (RuntimeException e) {
+         System.out.println("rejected: " + e.getMessage());
+      }
+      if (logMgr.currentLSN() != lsn)
+         fail("the rejected record moved the end of the log");
+
+      long next = logMgr.append(stringRecord(10));
+      logMgr.flush(next);
+      int count = 0;
+      for (BasicLogRecord rec : logMgr) {
+         if (rec.nextString().length() != 10)
+            fail("unexpected record in the log");
+         count++;
+      }
+      if (count != 2)
+         fail("the log has " + count + " records instead of 2");
+      System.out.println("ok");
+   }
+
+   private static LogWritable stringRecord(final int length) {
+      return new LogWritable() {
+         public void writeTo(LogRecordWriter out) {
+            StringBuilder sb = new StringBuilder();
+            for (int i=0; i<length; i++)
+               sb.append('x');
+            out.writeString(sb.toString());
+         }
+      };
+   }
+
+   private static void fail(String msg) {
+      System.out.println("FAILED: " + msg);
+      System.exit(1);
+   }
+}